@@ -0,0 +1,241 @@
+package net.codepoke.ai.challenges.hunterkiller;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import lombok.Getter;
+import net.codepoke.ai.challenge.hunterkiller.Map;
+import net.codepoke.ai.challenge.hunterkiller.MapLocation;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * The walking distance between every pair of positions on a map, stored as 16-bit values. The table is calculated once
+ * per map layout and stored in a file named after the layout's hash (see {@link MapTerrain#getLayoutHash()}), which is
+ * mapped into memory. Later games on the same layout load the table from this file instead of calculating it again.
+ *
+ * The distances follow {@link InfluenceMaps#calculateDistances(MapTerrain, IntArray)}: positions that can not be
+ * reached have a distance of -1, as does a position that can not be walked on to itself.
+ *
+ * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+ *
+ */
+public class DistanceTable {
+
+	/**
+	 * Directory in which the tables are stored.
+	 */
+	public static final String DIRECTORY = System.getProperty("java.io.tmpdir") + File.separator + "hunterkiller-distances";
+	/**
+	 * Maximum number of positions on a map for which a table is created. The size of a table grows with the square of
+	 * the number of positions, at this maximum it is 32 MB.
+	 */
+	public static final int MAX_CELLS = 4096;
+	/**
+	 * Value that identifies a file as a distance table.
+	 */
+	private static final int MAGIC = 0x484B4454;
+	/**
+	 * Number of bytes in front of the distances: the magic value, the width and height, and the hash of the layout.
+	 */
+	private static final int HEADER_BYTES = 20;
+
+	/**
+	 * The tables that have been loaded, by the hash of their layout.
+	 */
+	private static final HashMap<Long, DistanceTable> tables = new HashMap<Long, DistanceTable>();
+
+	/**
+	 * The terrain of the map this table belongs to.
+	 */
+	@Getter
+	private final MapTerrain terrain;
+	/**
+	 * The distances, ordered by target position and then by start position.
+	 */
+	private final ShortBuffer distances;
+	/**
+	 * Number of positions on the map.
+	 */
+	private final int cells;
+
+	private DistanceTable(MapTerrain terrain, ByteBuffer buffer) {
+		this.terrain = terrain;
+		this.cells = terrain.getCells();
+		buffer.position(HEADER_BYTES);
+		this.distances = buffer.slice()
+								.asShortBuffer();
+	}
+
+	/**
+	 * Returns the distance table of a map, or null if the map has more than {@link DistanceTable#MAX_CELLS} positions.
+	 */
+	public static DistanceTable of(Map map) {
+		return of(MapTerrain.of(map));
+	}
+
+	/**
+	 * Returns the distance table of a terrain, or null if the terrain has more than {@link DistanceTable#MAX_CELLS}
+	 * positions. The table is loaded from its file if that exists, otherwise it is calculated and stored. If the file
+	 * can not be used the table is kept in memory only.
+	 */
+	public static DistanceTable of(MapTerrain terrain) {
+		if (terrain.getCells() > MAX_CELLS)
+			return null;
+
+		synchronized (tables) {
+			DistanceTable table = tables.get(terrain.getLayoutHash());
+			if (table != null && table.terrain == terrain)
+				return table;
+
+			ByteBuffer buffer;
+			try {
+				buffer = load(terrain);
+			} catch (IOException e) {
+				buffer = ByteBuffer.allocate(size(terrain));
+				fill(terrain, buffer);
+			}
+
+			table = new DistanceTable(terrain, buffer);
+			tables.put(terrain.getLayoutHash(), table);
+			return table;
+		}
+	}
+
+	/**
+	 * Returns the walking distance from one position to another, or -1 if it can not be reached.
+	 */
+	public int distance(int from, int to) {
+		return distances.get(to * cells + from);
+	}
+
+	/**
+	 * Returns the walking distance from one location to another, or -1 if it can not be reached.
+	 */
+	public int distance(MapLocation from, MapLocation to) {
+		return distance(toPosition(from), toPosition(to));
+	}
+
+	/**
+	 * Returns a shortest path from one location to another, not including the start. If the target can not be walked
+	 * on, the path ends next to it. The path is empty if the target can not be reached.
+	 */
+	public Array<MapLocation> findPath(MapLocation from, MapLocation to) {
+		Array<MapLocation> path = new Array<MapLocation>();
+		int target = toPosition(to);
+		int current = toPosition(from);
+		int remaining = distance(current, target);
+
+		// Keep stepping to a neighbour that is one step closer to the target
+		while (remaining > 0) {
+			int next = -1;
+			for (int n = terrain.neighbourStart[current]; n < terrain.neighbourStart[current + 1]; n++) {
+				if (distance(terrain.neighbours[n], target) == remaining - 1) {
+					next = terrain.neighbours[n];
+					break;
+				}
+			}
+			if (next == -1)
+				break;
+
+			path.add(new MapLocation(next % terrain.getWidth(), next / terrain.getWidth()));
+			current = next;
+			remaining--;
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the position of a location.
+	 */
+	private int toPosition(MapLocation location) {
+		return location.getX() + location.getY() * terrain.getWidth();
+	}
+
+	/**
+	 * Maps the file of a terrain's table into memory, creating it first if it does not exist or does not match the
+	 * terrain.
+	 */
+	private static ByteBuffer load(MapTerrain terrain) throws IOException {
+		File directory = new File(DIRECTORY);
+		File file = new File(directory, Long.toHexString(terrain.getLayoutHash()) + ".dist");
+		int size = size(terrain);
+
+		// Use the existing file if it belongs to this layout
+		if (file.length() == size) {
+			ByteBuffer buffer = map(file.toPath(), MapMode.READ_ONLY, size);
+			if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == terrain.getWidth() && buffer.getInt(8) == terrain.getHeight()
+				&& buffer.getLong(12) == terrain.getLayoutHash())
+				return buffer;
+		}
+
+		// Calculate the table into a temporary file, and move it into place when it is complete, so that other
+		// processes never see a partial table
+		Files.createDirectories(directory.toPath());
+		Path temporary = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+		try {
+			MappedByteBuffer buffer = map(temporary, MapMode.READ_WRITE, size);
+			fill(terrain, buffer);
+			buffer.force();
+			Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+		return map(file.toPath(), MapMode.READ_ONLY, size);
+	}
+
+	/**
+	 * Maps a part of a file into memory. The mapping stays valid after the file is closed.
+	 */
+	private static MappedByteBuffer map(Path path, MapMode mode, int size) throws IOException {
+		if (mode == MapMode.READ_ONLY) {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				return channel.map(mode, 0, size);
+			}
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(mode, 0, size);
+		}
+	}
+
+	/**
+	 * Writes the header and the distances of a terrain's table into a buffer.
+	 */
+	private static void fill(MapTerrain terrain, ByteBuffer buffer) {
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, terrain.getWidth());
+		buffer.putInt(8, terrain.getHeight());
+		buffer.putLong(12, terrain.getLayoutHash());
+
+		// Search from each target once, which gives the distance from every position to it
+		int cells = terrain.getCells();
+		IntArray source = new IntArray(1);
+		for (int target = 0; target < cells; target++) {
+			source.clear();
+			source.add(target);
+			int[] row = InfluenceMaps.calculateDistances(terrain, source);
+			for (int from = 0; from < cells; from++) {
+				buffer.putShort(HEADER_BYTES + (target * cells + from) * 2, (short) row[from]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes in the table of a terrain.
+	 */
+	private static int size(MapTerrain terrain) {
+		return HEADER_BYTES + terrain.getCells() * terrain.getCells() * 2;
+	}
+
+}
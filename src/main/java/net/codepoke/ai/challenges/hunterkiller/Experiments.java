@@ -4,14 +4,22 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
+import net.codepoke.ai.challenge.hunterkiller.HunterKillerAction;
+import net.codepoke.ai.challenge.hunterkiller.HunterKillerRules;
+import net.codepoke.ai.challenge.hunterkiller.HunterKillerState;
+import net.codepoke.ai.challenge.hunterkiller.HunterKillerStateFactory;
+import net.codepoke.ai.challenges.hunterkiller.InfluenceMaps.DistanceLayer;
+import net.codepoke.ai.challenges.hunterkiller.InfluenceMaps.KnowledgeBase;
 import net.codepoke.ai.challenges.hunterkiller.bots.BaseBot;
 import net.codepoke.ai.challenges.hunterkiller.bots.HMCTSBot;
 import net.codepoke.ai.challenges.hunterkiller.bots.LSIBot;
 import net.codepoke.ai.challenges.hunterkiller.bots.NMCBot;
+import net.codepoke.ai.challenges.hunterkiller.bots.RandomBot;
 import net.codepoke.ai.challenges.hunterkiller.bots.ShortCircuitRandomBot;
 import net.codepoke.ai.challenges.hunterkiller.bots.SquadBot;
 import net.codepoke.ai.challenges.hunterkiller.bots.sorting.AttackSorting;
@@ -23,12 +31,15 @@ import net.codepoke.ai.challenges.hunterkiller.bots.sorting.StaticSorting;
 import net.codepoke.ai.challenges.hunterkiller.tournament.MatchData;
 import net.codepoke.ai.challenges.hunterkiller.tournament.TournamentMatch;
 import net.codepoke.lib.util.common.Stopwatch;
+import net.codepoke.lib.util.datastructures.MatrixMap;
 
 import org.paukov.combinatorics.Factory;
 import org.paukov.combinatorics.Generator;
 import org.paukov.combinatorics.ICombinatoricsVector;
 
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
 
 /**
  * Experiments as conducted during my internship @CodePoKE.
@@ -54,6 +65,18 @@ public class Experiments {
 
 		// Not technically part of the experiments, but still relevant
 		// runCTest(30);
+
+		// Compare the allocations per turn of the search-based bots
+		// runAllocationBenchmark(20);
+
+		// Compare the simulations per turn and strength of the variants of LSI's Sequential Halving
+		// runHalvingBenchmark(20);
+
+		// Check the incrementally updated distance layers against recalculating them
+		// runDistanceLayerComparison(200);
+
+		// Report how often the layers of a knowledge base are recalculated, when only one of them is read each turn
+		// runKnowledgeBaseCaching(200);
 	}
 
 	public static void runCTest(int numberOfGames) {
@@ -285,6 +308,195 @@ public class Experiments {
 		}
 	}
 
+	/**
+	 * Measures the number of bytes that the search-based bots allocate per turn, by letting them play the first turns
+	 * of a game against a random bot. Run this before and after a change to the search's data structures to compare
+	 * allocations. The random number generators are seeded, so that each run plays the same game, and the bots search
+	 * for a fixed number of iterations, so that the figures of different revisions can be compared directly.
+	 * 
+	 * @param numberOfTurns
+	 *            The number of turns each bot should play.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static void runAllocationBenchmark(int numberOfTurns) {
+		final long seed = 42;
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadID = Thread.currentThread()
+								.getId();
+
+		Array<BaseBot> bots = Array.with(	new HMCTSBot(true, new RandomSorting(), new ShortCircuitRandomBot()),
+											new HMCTSBot(false, new RandomSorting(), new ShortCircuitRandomBot()),
+											new NMCBot(new ShortCircuitRandomBot()));
+
+		for (BaseBot bot : bots) {
+			MathUtils.random.setSeed(seed);
+			BaseBot.setRandomSeed(seed);
+			HunterKillerRules rules = new HunterKillerRules();
+			ShortCircuitRandomBot opponent = new ShortCircuitRandomBot();
+			HunterKillerState state = new HunterKillerStateFactory().generateInitialState(new String[] { "A", "B" }, null);
+
+			long totalBytes = 0;
+			int turns = 0;
+			while (turns < numberOfTurns && !state.isDone()) {
+				// Only measure the allocations made while the bot is searching
+				long bytesBefore = threadBean.getThreadAllocatedBytes(threadID);
+				@SuppressWarnings("unchecked")
+				HunterKillerAction action = (HunterKillerAction) bot.handle(state);
+				totalBytes += threadBean.getThreadAllocatedBytes(threadID) - bytesBefore;
+				turns++;
+
+				rules.handle(state, action);
+				if (!state.isDone())
+					rules.handle(state, opponent.handle(state));
+			}
+
+			System.out.println(bot.getBotName() + " allocated " + (totalBytes / Math.max(1, turns)) + " bytes per turn on average over "
+								+ turns + " turns.");
+		}
+	}
+
+	/**
+	 * Compares the variants of Sequential Halving in LSI, with and without common random numbers and early
+	 * elimination. Each variant plays full games against the default LSI, reporting the average number of evaluation
+	 * simulations it used per turn and the number of games it won. A variant that wins about half its games while
+	 * using fewer simulations makes decisions of equal quality at a lower cost.
+	 * 
+	 * The playouts use the {@link RandomBot}, because it draws its random numbers through
+	 * {@link BaseBot#getRandom()} so that they can be shared between simulations.
+	 * 
+	 * @param numberOfGames
+	 *            The number of games each variant should play.
+	 */
+	public static void runHalvingBenchmark(int numberOfGames) {
+		boolean[][] variants = new boolean[][] { { false, false }, { true, false }, { false, true }, { true, true } };
+
+		for (boolean[] variant : variants) {
+			int wins = 0;
+			long simulations = 0;
+			int turns = 0;
+
+			for (int game = 0; game < numberOfGames; game++) {
+				LSIBot bot = new LSIBot(RandomBot::new, 1);
+				bot.setCommonRandomNumbers(variant[0]);
+				bot.setEarlyElimination(variant[1]);
+				LSIBot opponent = new LSIBot(RandomBot::new, 1);
+
+				HunterKillerRules rules = new HunterKillerRules();
+				HunterKillerState state = new HunterKillerStateFactory().generateInitialState(new String[] { "A", "B" }, null);
+				while (!state.isDone()) {
+					if (state.getCurrentPlayer() == 0) {
+						rules.handle(state, bot.handle(state));
+						// Only count the turns in which the bot actually searched
+						if (bot.getSimulationsEvaluation() > 0) {
+							simulations += bot.getSimulationsEvaluation();
+							turns++;
+						}
+					} else {
+						rules.handle(state, opponent.handle(state));
+					}
+				}
+
+				// The bot wins if it has the highest score
+				IntArray scores = state.getScores();
+				if (scores.get(0) > scores.get(1))
+					wins++;
+			}
+
+			System.out.println("LSI with common random numbers " + (variant[0] ? "on" : "off") + " and early elimination "
+								+ (variant[1] ? "on" : "off") + " used " + (simulations / Math.max(1, turns))
+								+ " evaluation simulations per turn on average, and won " + wins + " out of " + numberOfGames
+								+ " games against the default LSI.");
+		}
+	}
+
+	/**
+	 * Compares the incrementally updated {@link DistanceLayer} with recalculating the layer from scratch. Random
+	 * actions are played, and after each turn the layer is updated and compared with a fresh calculation, for both the
+	 * enemy structures and the enemy units and structures. As in the {@link LeastDistanceToEnemySorting}, there is a
+	 * layer for each player, so that each layer is repaired from the previous state of the same player. Any difference
+	 * is an error in the repair, and stops the comparison. The time spent on both ways of updating is reported as well.
+	 * 
+	 * @param numberOfTurns
+	 *            The number of turns to compare.
+	 */
+	public static void runDistanceLayerComparison(int numberOfTurns) {
+		HunterKillerRules rules = new HunterKillerRules();
+		HunterKillerState state = new HunterKillerStateFactory().generateInitialState(new String[] { "A", "B" }, null);
+		DistanceLayer[] structureLayers = { new DistanceLayer("structures", InfluenceMaps::locateEnemyStructures),
+											new DistanceLayer("structures", InfluenceMaps::locateEnemyStructures) };
+		DistanceLayer[] enemyLayers = { new DistanceLayer("enemies", InfluenceMaps::locateAnyEnemy),
+										new DistanceLayer("enemies", InfluenceMaps::locateAnyEnemy) };
+
+		long incrementalNanos = 0, fullNanos = 0;
+		for (int turn = 0; turn < numberOfTurns; turn++) {
+			// Start a new game when the previous one has ended
+			if (state.isDone())
+				state = new HunterKillerStateFactory().generateInitialState(new String[] { "A", "B" }, null);
+			rules.handle(state, RandomBot.createRandomAction(state));
+			DistanceLayer structures = structureLayers[state.getCurrentPlayer()];
+			DistanceLayer enemies = enemyLayers[state.getCurrentPlayer()];
+
+			long start = System.nanoTime();
+			structures.update(state);
+			enemies.update(state);
+			incrementalNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			MatrixMap fullStructures = InfluenceMaps.calculateDistanceToEnemyStructures(state);
+			MatrixMap fullEnemies = InfluenceMaps.calculateDistanceToAnyEnemy(state);
+			fullNanos += System.nanoTime() - start;
+
+			int cells = state.getMap()
+								.getMapWidth()
+						* state.getMap()
+								.getMapHeight();
+			for (int i = 0; i < cells; i++) {
+				if (structures.getMap()
+								.get(i) != fullStructures.get(i))
+					throw new RuntimeException("Distance to the enemy structures differs from recalculation at position " + i
+												+ " in turn " + turn);
+				if (enemies.getMap()
+							.get(i) != fullEnemies.get(i))
+					throw new RuntimeException("Distance to any enemy differs from recalculation at position " + i + " in turn " + turn);
+			}
+		}
+
+		System.out.println("The incremental distance layers matched recalculation over " + numberOfTurns + " turns. Incremental: "
+							+ TimeUnit.NANOSECONDS.toMicros(incrementalNanos) + " us, recalculation: "
+							+ TimeUnit.NANOSECONDS.toMicros(fullNanos) + " us.");
+	}
+
+	/**
+	 * Reports how many recalculations a {@link KnowledgeBase} with the layers of the ScoutingBot avoids. Random
+	 * actions are played, after each turn the knowledge base is updated and only the distance to the enemy structures
+	 * is read, as a bot would.
+	 * 
+	 * @param numberOfTurns
+	 *            The number of turns to play.
+	 */
+	public static void runKnowledgeBaseCaching(int numberOfTurns) {
+		HunterKillerRules rules = new HunterKillerRules();
+		HunterKillerState state = new HunterKillerStateFactory().generateInitialState(new String[] { "A", "B" }, null);
+		KnowledgeBase kb = new KnowledgeBase();
+		kb.putDistanceLayer("distance nearest enemy structure", InfluenceMaps::locateEnemyStructures);
+		kb.putDistanceLayer("distance nearest enemy", InfluenceMaps::locateAnyEnemy);
+		kb.put("amount of ally presence", InfluenceMaps::calculateAllyPresence, InfluenceMaps::fingerprintAllyPresence);
+		kb.put("amount of squad presence", InfluenceMaps::calculateSquadPresence, InfluenceMaps::fingerprintSquadPresence);
+
+		for (int turn = 0; turn < numberOfTurns; turn++) {
+			// Start a new game when the previous one has ended
+			if (state.isDone())
+				state = new HunterKillerStateFactory().generateInitialState(new String[] { "A", "B" }, null);
+			kb.update(state);
+			kb.get("distance nearest enemy structure")
+				.getMap();
+			rules.handle(state, RandomBot.createRandomAction(state));
+		}
+
+		System.out.println("Over " + numberOfTurns + " turns the knowledge base avoided " + kb.getHits() + " recalculations, and made "
+							+ kb.getMisses() + ".");
+	}
+
 	@SuppressWarnings("rawtypes")
 	public static void testC(int numberOfGames, double C) {
 		Array<BaseBot> botsSetup = Array.with(	new HMCTSBot(true, new LeastDistanceToEnemySorting(), new ShortCircuitRandomBot(), C),
@@ -4,17 +4,20 @@ import static net.codepoke.ai.challenges.hunterkiller.StreamExtensions.stream;
 import static net.codepoke.lib.util.ai.search.graph.GraphSearch.breadthFirst;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import net.codepoke.ai.challenge.hunterkiller.HunterKillerState;
 import net.codepoke.ai.challenge.hunterkiller.Map;
 import net.codepoke.ai.challenge.hunterkiller.MapLocation;
@@ -29,6 +32,7 @@ import net.codepoke.lib.util.datastructures.Path;
 import one.util.streamex.StreamEx;
 
 import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.utils.IntArray;
 
 /**
  * This class contains methods that create an influence map for a variety of subjects, including:
@@ -46,6 +50,10 @@ public class InfluenceMaps {
 	 * Represents a collection of {@link KnowledgeLayer}s. The layers are stored in a {@link HashMap}, indexed by their
 	 * name.
 	 * 
+	 * Layers are updated lazily: {@link KnowledgeBase#update(HunterKillerState)} only marks the layers of which the
+	 * input changed, and a layer is recalculated when its map is requested. The state provided to the update should
+	 * therefore not be changed before the layers are read.
+	 * 
 	 * @author Anton Valkenberg (anton.valkenberg@gmail.com)
 	 *
 	 */
@@ -80,6 +88,40 @@ public class InfluenceMaps {
 			return layers.put(key, new KnowledgeLayer(key, function));
 		}
 
+		/**
+		 * Adds a function to the KnowledgeBase with the provided key as it's name, which is only invoked when the
+		 * fingerprint of its input changed. If the KnowledgeBase previously contained a mapping for the key, the old
+		 * value is returned.
+		 * 
+		 * @param key
+		 *            The name for the KnowledgeLayer.
+		 * @param function
+		 *            The function that the KnowledgeLayer will invoke to update it's values.
+		 * @param fingerprint
+		 *            Cheap function that identifies the part of a state the function depends on, see
+		 *            {@link KnowledgeLayer#fingerprint}.
+		 * @return The previous value associated with the key, or null if there was no mapping.
+		 */
+		public KnowledgeLayer put(String key, Function<HunterKillerState, MatrixMap> function, ToLongFunction<HunterKillerState> fingerprint) {
+			KnowledgeLayer layer = new KnowledgeLayer(key, function);
+			layer.setFingerprint(fingerprint);
+			return layers.put(key, layer);
+		}
+
+		/**
+		 * Adds a {@link DistanceLayer} to the KnowledgeBase with the provided key as it's name. If the KnowledgeBase
+		 * previously contained a mapping for the key, the old value is returned.
+		 * 
+		 * @param key
+		 *            The name for the DistanceLayer.
+		 * @param sources
+		 *            The function that determines the locations the DistanceLayer contains the distance to.
+		 * @return The previous value associated with the key, or null if there was no mapping.
+		 */
+		public KnowledgeLayer putDistanceLayer(String key, Function<HunterKillerState, List<MapLocation>> sources) {
+			return layers.put(key, new DistanceLayer(key, sources));
+		}
+
 		/**
 		 * Adds a KnowledgeLayer to the KnowledgeBase. If the KnowledgeBase previously contained a mapping for it's key,
 		 * the old value is returned.
@@ -129,15 +171,38 @@ public class InfluenceMaps {
 		}
 
 		/**
-		 * Updates all KnowledgeLayers in this KnowledgeBase with the provided state.
+		 * Updates all KnowledgeLayers in this KnowledgeBase with the provided state. Layers of which the fingerprint did
+		 * not change keep their values, the others are recalculated the next time their map is requested.
 		 * 
 		 * @param state
 		 *            The state that should be provided to the layers to update them.
 		 */
 		public void update(HunterKillerState state) {
 			for (KnowledgeLayer layer : layers.values()) {
-				layer.update(state);
+				layer.invalidate(state);
+			}
+		}
+
+		/**
+		 * Returns the number of times a layer in this KnowledgeBase did not have to be recalculated after an update.
+		 */
+		public long getHits() {
+			long hits = 0;
+			for (KnowledgeLayer layer : layers.values()) {
+				hits += layer.getHits();
 			}
+			return hits;
+		}
+
+		/**
+		 * Returns the number of times a layer in this KnowledgeBase was recalculated after an update.
+		 */
+		public long getMisses() {
+			long misses = 0;
+			for (KnowledgeLayer layer : layers.values()) {
+				misses += layer.getMisses();
+			}
+			return misses;
 		}
 
 	}
@@ -153,10 +218,10 @@ public class InfluenceMaps {
 	public static class KnowledgeLayer {
 
 		/**
-		 * The map of values that make up this layer.
+		 * The map of values that make up this layer. A recalculation replaces the map rather than changing it, since
+		 * readers do not hold the lock of the layer.
 		 */
-		@Getter
-		MatrixMap map;
+		volatile MatrixMap map;
 
 		/**
 		 * The name of this layer, describing the knowledge contained in it.
@@ -171,17 +236,529 @@ public class InfluenceMaps {
 		final Function<HunterKillerState, MatrixMap> function;
 
 		/**
-		 * Updates this layer using the provided state.
+		 * Cheap function that identifies the part of a {@link HunterKillerState} that this layer's function depends on.
+		 * States with the same fingerprint should result in the same map. If there is no fingerprint, the layer is
+		 * recalculated after every update through the {@link KnowledgeBase}.
+		 */
+		@Setter
+		ToLongFunction<HunterKillerState> fingerprint;
+		/**
+		 * The fingerprint of the state of the latest update through the {@link KnowledgeBase}, if
+		 * {@link KnowledgeLayer#hasFingerprint} is set.
+		 */
+		long lastFingerprint;
+		boolean hasFingerprint;
+		/**
+		 * The state this layer still has to be recalculated with, or null if the map is up to date.
+		 */
+		volatile HunterKillerState pendingState;
+
+		/**
+		 * Number of updates through the {@link KnowledgeBase} after which this layer did not have to be recalculated.
+		 */
+		@Getter
+		long hits;
+		/**
+		 * Number of times this layer was recalculated after an update through the {@link KnowledgeBase}.
+		 */
+		@Getter
+		long misses;
+
+		/**
+		 * Returns the map of values that make up this layer, recalculating it first if the state of the latest update
+		 * has not been applied yet.
+		 */
+		public MatrixMap getMap() {
+			if (pendingState != null) {
+				synchronized (this) {
+					HunterKillerState state = pendingState;
+					if (state != null) {
+						recalculate(state);
+						misses++;
+						pendingState = null;
+					}
+				}
+			}
+			return map;
+		}
+
+		/**
+		 * Updates this layer using the provided state. The layer is recalculated immediately, regardless of its
+		 * fingerprint.
 		 * 
 		 * @param state
 		 *            The state to use as argument when invoking this layer's function.
 		 */
 		public void update(HunterKillerState state) {
+			synchronized (this) {
+				pendingState = null;
+				hasFingerprint = false;
+			}
+			recalculate(state);
+		}
+
+		/**
+		 * Calculates the values of this layer for the provided state, without changing the layer. Unlike
+		 * {@link KnowledgeLayer#update(HunterKillerState)}, this can be called by multiple threads at the same time,
+		 * each with their own state.
+		 * 
+		 * @param state
+		 *            The state to use as argument when invoking this layer's function.
+		 */
+		public MatrixMap calculate(HunterKillerState state) {
+			return function.apply(state);
+		}
+
+		/**
+		 * Marks this layer to be recalculated with the provided state the next time its map is requested, unless the
+		 * fingerprint of the state is the same as that of the previous update.
+		 * 
+		 * @param state
+		 *            The state to use as argument when invoking this layer's function.
+		 */
+		synchronized void invalidate(HunterKillerState state) {
+			if (fingerprint != null) {
+				long next = fingerprint.applyAsLong(state);
+				boolean unchanged = hasFingerprint && next == lastFingerprint;
+				lastFingerprint = next;
+				hasFingerprint = true;
+				if (unchanged) {
+					hits++;
+					// A pending recalculation results in the same map, but the newest state is the one still valid
+					if (pendingState != null)
+						pendingState = state;
+					return;
+				}
+			}
+
+			// A pending recalculation that was never needed is replaced by this one
+			if (pendingState != null)
+				hits++;
+			pendingState = state;
+		}
+
+		/**
+		 * Recalculates the values of this layer.
+		 * 
+		 * @param state
+		 *            The state to use as argument when invoking this layer's function.
+		 */
+		protected void recalculate(HunterKillerState state) {
 			map = function.apply(state);
 		}
 
 	}
 
+	/**
+	 * A {@link KnowledgeLayer} containing the distance to the closest of a set of source locations, like
+	 * {@link InfluenceMaps#createMap_DistanceTo(HunterKillerState, List)}. Instead of recalculating the whole map on each
+	 * update, the layer determines which sources were added and removed since the previous update, and repairs only the
+	 * part of the map whose distances change because of them. A source that moved is removed from its old location and
+	 * added at its new one. When most of the sources changed, for example because the layer was updated for another
+	 * player than before, the whole map is calculated again instead.
+	 * 
+	 * The distances are repaired in a private array, and copied into two maps that take turns being published. An
+	 * update only copies the positions that changed in it and in the update before, into the map that is not
+	 * published, after which the two are swapped. Threads that are still reading the previous map therefore never see
+	 * a map that is only partly repaired, but they should request the map again after the next update instead of
+	 * holding on to it, since the map they hold is brought up to date during the update after that.
+	 * 
+	 * The thread that updates a layer can also read the repaired distances directly, see
+	 * {@link DistanceLayer#getDistance(int)}. This is used to keep a private layer up to date for each of the states
+	 * sorted during a search, see {@link DistanceLayer#update(HunterKillerState, MapTerrain)}.
+	 * 
+	 * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+	 *
+	 */
+	public static class DistanceLayer
+			extends KnowledgeLayer {
+
+		/**
+		 * Determines the locations this layer contains the distance to.
+		 */
+		@Getter
+		final Function<HunterKillerState, List<MapLocation>> sources;
+		/**
+		 * The terrain of the map the distances were calculated for.
+		 */
+		MapTerrain terrain;
+		/**
+		 * The terrain of the map of the latest update, which is looked up once per update so that the states of a search
+		 * on the same map can use it, see {@link DistanceLayer#calculate(HunterKillerState)}.
+		 */
+		@Getter
+		volatile MapTerrain latestTerrain;
+		/**
+		 * The distance for each position, as in {@link InfluenceMaps#calculateDistances(MapTerrain, IntArray)}.
+		 */
+		int[] distances;
+		/**
+		 * The map that is not published, which is brought up to date and swapped with the published map on the next
+		 * update.
+		 */
+		MatrixMap backMap;
+		/**
+		 * The positions whose distance changed during the current update, and during the previous update. The map
+		 * that is not published is missing the changes of the previous update.
+		 */
+		IntArray changed = new IntArray();
+		IntArray previousChanged = new IntArray();
+		/**
+		 * Whether or not each position currently is a source.
+		 */
+		boolean[] isSource;
+		/**
+		 * The positions of the sources of the previous update.
+		 */
+		IntArray sourcePositions = new IntArray();
+		/**
+		 * Whether or not each position is a source after the current update, only used while updating.
+		 */
+		boolean[] isNextSource;
+		/**
+		 * Whether or not the distance of each position needs to be recalculated, only used while updating.
+		 */
+		boolean[] affected;
+		/** Collections of positions that are reused between updates. */
+		IntArray removed = new IntArray();
+		IntArray added = new IntArray();
+		IntArray affectedPositions = new IntArray();
+		IntArray queue = new IntArray();
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param name
+		 *            The name of this layer.
+		 * @param sources
+		 *            Determines the locations this layer contains the distance to.
+		 */
+		public DistanceLayer(String name, Function<HunterKillerState, List<MapLocation>> sources) {
+			super(name, state -> createMap_DistanceTo(state, sources.apply(state)));
+			this.sources = sources;
+			setFingerprint(state -> fingerprint(latestTerrain, state, sources.apply(state)));
+		}
+
+		/**
+		 * Calculates the values of this layer for the provided state, without changing the layer. The state is expected
+		 * to be on the same map as the state of the latest update, as are the states of a search that started after
+		 * that update.
+		 * 
+		 * @param state
+		 *            The state to use as argument when invoking this layer's function.
+		 */
+		@Override
+		public MatrixMap calculate(HunterKillerState state) {
+			MapTerrain updateTerrain = latestTerrain;
+			if (updateTerrain == null)
+				return super.calculate(state);
+			return createMap_DistanceTo(updateTerrain, state, sources.apply(state));
+		}
+
+		/**
+		 * Returns the current distance of a position, which is -1 if no source can be reached from it. Only the thread
+		 * that updates this layer should use this, other threads read the map of the layer.
+		 * 
+		 * @param position
+		 *            The position on the map, see {@link Map#toPosition(MapLocation)}.
+		 */
+		public int getDistance(int position) {
+			return distances[position];
+		}
+
+		/**
+		 * Updates this layer using the provided state, like {@link KnowledgeLayer#update(HunterKillerState)}, but with
+		 * the terrain of the state's map already known. The states of a search are all on the same map, so their
+		 * terrain does not have to be looked up again for each of them.
+		 * 
+		 * @param state
+		 *            The state to determine the sources from.
+		 * @param stateTerrain
+		 *            The terrain of the state's map.
+		 */
+		public void update(HunterKillerState state, MapTerrain stateTerrain) {
+			synchronized (this) {
+				pendingState = null;
+				hasFingerprint = false;
+			}
+			recalculate(state, stateTerrain);
+		}
+
+		/**
+		 * Looks up the terrain of the state's map once for this update, and marks the layer to be recalculated, see
+		 * {@link KnowledgeLayer#invalidate(HunterKillerState)}.
+		 */
+		@Override
+		synchronized void invalidate(HunterKillerState state) {
+			latestTerrain = MapTerrain.of(state.getMap());
+			super.invalidate(state);
+		}
+
+		/**
+		 * Recalculates this layer using the provided state. The whole layer is calculated on the first update, or when
+		 * the state is on a map with a different layout than the previous update.
+		 * 
+		 * @param state
+		 *            The state to determine the sources from.
+		 */
+		@Override
+		protected void recalculate(HunterKillerState state) {
+			recalculate(state, MapTerrain.of(state.getMap()));
+		}
+
+		/**
+		 * Recalculates this layer using the provided state, of which the terrain of the map is already known.
+		 */
+		private synchronized void recalculate(HunterKillerState state, MapTerrain stateTerrain) {
+			Map gameMap = state.getMap();
+			latestTerrain = stateTerrain;
+			IntArray positions = new IntArray();
+			for (MapLocation location : sources.apply(state)) {
+				positions.add(gameMap.toPosition(location));
+			}
+
+			// Calculate the whole layer for a new map
+			if (map == null || terrain != stateTerrain) {
+				initialize(stateTerrain, positions);
+				return;
+			}
+
+			// Determine which sources were removed and which were added
+			removed.clear();
+			added.clear();
+			for (int i = 0; i < positions.size; i++) {
+				isNextSource[positions.get(i)] = true;
+			}
+			for (int i = 0; i < sourcePositions.size; i++) {
+				int position = sourcePositions.get(i);
+				if (isSource[position] && !isNextSource[position]) {
+					isSource[position] = false;
+					removed.add(position);
+				}
+			}
+			for (int i = 0; i < positions.size; i++) {
+				int position = positions.get(i);
+				isNextSource[position] = false;
+				if (!isSource[position]) {
+					isSource[position] = true;
+					added.add(position);
+				}
+			}
+			int previousSources = sourcePositions.size;
+			sourcePositions = positions;
+
+			// Nothing changed, so the distances are still correct
+			if (removed.size == 0 && added.size == 0)
+				return;
+
+			// When most sources changed, the repair would visit more of the map than calculating it again
+			if (2 * (removed.size + added.size) > previousSources + positions.size) {
+				initialize(stateTerrain, positions);
+				return;
+			}
+
+			queue.clear();
+			changed.clear();
+			removeSources();
+			addSources();
+			propagate();
+			publish();
+		}
+
+		/**
+		 * Calculates the whole layer. The arrays and maps are only created again for a map with a different layout.
+		 */
+		private void initialize(MapTerrain terrain, IntArray positions) {
+			int cells = terrain.getCells();
+			if (this.terrain != terrain || map == null) {
+				this.terrain = terrain;
+				isSource = new boolean[cells];
+				isNextSource = new boolean[cells];
+				affected = new boolean[cells];
+				backMap = new MatrixMap(terrain.getWidth(), terrain.getHeight());
+				map = new MatrixMap(terrain.getWidth(), terrain.getHeight());
+			} else {
+				Arrays.fill(isSource, false);
+			}
+			distances = calculateDistances(terrain, positions);
+			for (int i = 0; i < positions.size; i++) {
+				isSource[positions.get(i)] = true;
+			}
+			sourcePositions = positions;
+
+			// Both maps are filled completely, so neither of them is missing any changes
+			for (int i = 0; i < cells; i++) {
+				backMap.set(i, distances[i]);
+			}
+			changed.clear();
+			previousChanged.clear();
+			swap();
+			for (int i = 0; i < cells; i++) {
+				backMap.set(i, distances[i]);
+			}
+		}
+
+		/**
+		 * Brings the map that is not published up to date with the changes of this update and the previous one, and
+		 * publishes it.
+		 */
+		private void publish() {
+			for (int i = 0; i < previousChanged.size; i++) {
+				int position = previousChanged.get(i);
+				backMap.set(position, distances[position]);
+			}
+			for (int i = 0; i < changed.size; i++) {
+				int position = changed.get(i);
+				backMap.set(position, distances[position]);
+			}
+			swap();
+
+			// The map that was published until now is missing the changes of this update
+			IntArray missing = previousChanged;
+			previousChanged = changed;
+			changed = missing;
+			changed.clear();
+		}
+
+		/**
+		 * Swaps the published map with the one that is not published.
+		 */
+		private void swap() {
+			MatrixMap published = map;
+			map = backMap;
+			backMap = published;
+		}
+
+		/**
+		 * Resets the distance of each position that was only supported by the removed sources, and queues the
+		 * positions next to them that still have a distance, so that the distances can be recalculated from there.
+		 */
+		private void removeSources() {
+			int[] neighbourStart = terrain.neighbourStart;
+			int[] neighbours = terrain.neighbours;
+
+			// Go through the positions in order of increasing distance, starting at the removed sources. A position is
+			// affected if none of its neighbours that are one step closer to a source remain unaffected.
+			affectedPositions.clear();
+			for (int i = 0; i < removed.size; i++) {
+				int position = removed.get(i);
+				if (terrain.isWalkable(position))
+					affected[position] = true;
+				affectedPositions.add(position);
+			}
+			for (int head = 0; head < affectedPositions.size; head++) {
+				int current = affectedPositions.get(head);
+				int next = Math.max(distances[current], 0) + 1;
+				for (int n = neighbourStart[current]; n < neighbourStart[current + 1]; n++) {
+					int neighbour = neighbours[n];
+					if (!affected[neighbour] && distances[neighbour] == next && !isSupported(neighbour)) {
+						affected[neighbour] = true;
+						affectedPositions.add(neighbour);
+					}
+				}
+			}
+
+			// Reset the affected positions
+			for (int i = 0; i < affectedPositions.size; i++) {
+				int position = affectedPositions.get(i);
+				if (affected[position]) {
+					distances[position] = -1;
+					changed.add(position);
+				}
+			}
+
+			// Recalculate from the unaffected positions and sources around them
+			int width = terrain.getWidth();
+			for (int i = 0; i < affectedPositions.size; i++) {
+				int position = affectedPositions.get(i);
+				if (!affected[position])
+					continue;
+				for (int n = neighbourStart[position]; n < neighbourStart[position + 1]; n++) {
+					int neighbour = neighbours[n];
+					if (!affected[neighbour] && distances[neighbour] != -1)
+						queue.add(neighbour);
+				}
+				// Sources that can not be walked on are not among the neighbours
+				int x = position % width;
+				if (position >= width && isSource[position - width])
+					queue.add(position - width);
+				if (position + width < terrain.getCells() && isSource[position + width])
+					queue.add(position + width);
+				if (x > 0 && isSource[position - 1])
+					queue.add(position - 1);
+				if (x < width - 1 && isSource[position + 1])
+					queue.add(position + 1);
+			}
+
+			for (int i = 0; i < affectedPositions.size; i++) {
+				affected[affectedPositions.get(i)] = false;
+			}
+		}
+
+		/**
+		 * Whether or not the distance of a position is still supported by a neighbour that is one step closer to a
+		 * source, or by being a source itself.
+		 */
+		private boolean isSupported(int position) {
+			if (isSource[position])
+				return true;
+
+			int previous = distances[position] - 1;
+			for (int n = terrain.neighbourStart[position]; n < terrain.neighbourStart[position + 1]; n++) {
+				int neighbour = terrain.neighbours[n];
+				if (!affected[neighbour] && distances[neighbour] == previous)
+					return true;
+			}
+
+			// Sources that can not be walked on are not among the neighbours, but do support the positions next to them
+			if (previous == 0) {
+				int width = terrain.getWidth();
+				int x = position % width;
+				if ((position >= width && isSource[position - width]) || (position + width < terrain.getCells() && isSource[position + width])
+					|| (x > 0 && isSource[position - 1]) || (x < width - 1 && isSource[position + 1]))
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Queues the added sources, setting the distance of the ones that can be walked on to 0.
+		 */
+		private void addSources() {
+			for (int i = 0; i < added.size; i++) {
+				int position = added.get(i);
+				if (terrain.isWalkable(position)) {
+					distances[position] = 0;
+					changed.add(position);
+				}
+				queue.add(position);
+			}
+		}
+
+		/**
+		 * Lowers the distances of the positions around the queued positions, until no distance can be lowered any
+		 * further. Only the region around the changed sources is visited.
+		 */
+		private void propagate() {
+			int[] neighbourStart = terrain.neighbourStart;
+			int[] neighbours = terrain.neighbours;
+			for (int head = 0; head < queue.size; head++) {
+				int current = queue.get(head);
+				// Sources that can not be walked on have no distance themselves, but are searched from as if they do
+				int next = (isSource[current] ? 0 : distances[current]) + 1;
+				for (int n = neighbourStart[current]; n < neighbourStart[current + 1]; n++) {
+					int neighbour = neighbours[n];
+					if (distances[neighbour] == -1 || distances[neighbour] > next) {
+						distances[neighbour] = next;
+						changed.add(neighbour);
+						queue.add(neighbour);
+					}
+				}
+			}
+		}
+
+	}
+
 	/**
 	 * Returns a {@link MatrixMap} containing the distance to the closest enemy structure for each location on the map.
 	 * 
@@ -189,56 +766,140 @@ public class InfluenceMaps {
 	 *            The state of the game.
 	 */
 	public static MatrixMap calculateDistanceToEnemyStructures(HunterKillerState state) {
-		// Get a list of all structures that are not controlled by the currently active player
-		List<Structure> enemyStructures = stream(state.getMap(), Structure.class).filter(i -> !i.isControlledBy(state.getActivePlayer()))
-																					.toList();
-		// Calculate the distance map
-		return InfluenceMaps.createMap_DistanceToStructures(state, enemyStructures);
+		return InfluenceMaps.createMap_DistanceTo(state, locateEnemyStructures(state));
 	}
 
 	/**
 	 * {@link InfluenceMaps#calculateDistanceToEnemyStructures(HunterKillerState)}
 	 */
 	public static MatrixMap calculateDistanceToAlliedStructures(HunterKillerState state) {
-		// Get a list of all structures that are controlled by the currently active player
-		List<Structure> allyStructures = stream(state.getMap(), Structure.class).filter(i -> i.isControlledBy(state.getActivePlayer()))
-																				.toList();
-		// Calculate the distance map
-		return InfluenceMaps.createMap_DistanceToStructures(state, allyStructures);
+		return InfluenceMaps.createMap_DistanceTo(state, locateAlliedStructures(state));
 	}
 
 	/**
 	 * {@link InfluenceMaps#calculateDistanceToEnemyStructures(HunterKillerState)}
 	 */
 	public static MatrixMap calculateDistanceToEnemyUnits(HunterKillerState state) {
-		// Get a list of all units that are not controlled by the currently active player
-		List<Unit> enemyUnits = stream(state.getMap(), Unit.class).filter(i -> !i.isControlledBy(state.getActivePlayer()))
-																	.toList();
-		// Calculate the distance map
-		return InfluenceMaps.createMap_DistanceToUnits(state, enemyUnits);
+		return InfluenceMaps.createMap_DistanceTo(state, locateEnemyUnits(state));
 	}
 
 	/**
 	 * {@link InfluenceMaps#calculateDistanceToEnemyStructures(HunterKillerState)}
 	 */
 	public static MatrixMap calculateDistanceToAlliedUnits(HunterKillerState state) {
-		// Get a list of all units that are controlled by the currently active player
-		List<Unit> allyUnits = stream(state.getMap(), Unit.class).filter(i -> i.isControlledBy(state.getActivePlayer()))
-																	.toList();
-		// Calculate the distance map
-		return InfluenceMaps.createMap_DistanceToUnits(state, allyUnits);
+		return InfluenceMaps.createMap_DistanceTo(state, locateAlliedUnits(state));
 	}
 
 	/** {@link InfluenceMaps#calculateDistanceToEnemyStructures(HunterKillerState)} */
 	public static MatrixMap calculateDistanceToAnyEnemy(HunterKillerState state) {
+		return InfluenceMaps.createMap_DistanceTo(state, locateAnyEnemy(state));
+	}
+
+	/**
+	 * Returns the locations of all structures that are not controlled by the currently active player. These are the
+	 * sources of {@link InfluenceMaps#calculateDistanceToEnemyStructures(HunterKillerState)}, and can be used as the
+	 * sources of a {@link DistanceLayer}.
+	 * 
+	 * @param state
+	 *            The state of the game.
+	 */
+	public static List<MapLocation> locateEnemyStructures(HunterKillerState state) {
+		return stream(state.getMap(), Structure.class).filter(i -> !i.isControlledBy(state.getActivePlayer()))
+														.map(i -> i.getLocation())
+														.toList();
+	}
+
+	/**
+	 * {@link InfluenceMaps#locateEnemyStructures(HunterKillerState)}
+	 */
+	public static List<MapLocation> locateAlliedStructures(HunterKillerState state) {
+		return stream(state.getMap(), Structure.class).filter(i -> i.isControlledBy(state.getActivePlayer()))
+														.map(i -> i.getLocation())
+														.toList();
+	}
+
+	/**
+	 * {@link InfluenceMaps#locateEnemyStructures(HunterKillerState)}
+	 */
+	public static List<MapLocation> locateEnemyUnits(HunterKillerState state) {
+		return stream(state.getMap(), Unit.class).filter(i -> !i.isControlledBy(state.getActivePlayer()))
+													.map(i -> i.getLocation())
+													.toList();
+	}
+
+	/**
+	 * {@link InfluenceMaps#locateEnemyStructures(HunterKillerState)}
+	 */
+	public static List<MapLocation> locateAlliedUnits(HunterKillerState state) {
+		return stream(state.getMap(), Unit.class).filter(i -> i.isControlledBy(state.getActivePlayer()))
+													.map(i -> i.getLocation())
+													.toList();
+	}
+
+	/**
+	 * {@link InfluenceMaps#locateEnemyStructures(HunterKillerState)}
+	 */
+	public static List<MapLocation> locateAnyEnemy(HunterKillerState state) {
 		// Get a list of all enemies' locations, either structure or unit
-		List<MapLocation> enemyLocations = stream(state.getMap(), GameObject.class).filter(i -> i instanceof Controlled)
-																					.filter(i -> !((Controlled) i).isControlledBy(state.getActivePlayer()))
-																					.map(i -> i.getLocation())
-																					.toList();
+		return stream(state.getMap(), GameObject.class).filter(i -> i instanceof Controlled)
+														.filter(i -> !((Controlled) i).isControlledBy(state.getActivePlayer()))
+														.map(i -> i.getLocation())
+														.toList();
+	}
+
+	/**
+	 * Returns a fingerprint of the locations on the map of a state, which does not depend on the order of the locations.
+	 * Any change to the locations, or to the layout of the map, is very likely to change the fingerprint.
+	 * 
+	 * @param state
+	 *            The game state the locations are on.
+	 * @param locations
+	 *            The locations to create the fingerprint of.
+	 */
+	public static long fingerprint(HunterKillerState state, List<MapLocation> locations) {
+		return fingerprint(MapTerrain.of(state.getMap()), state, locations);
+	}
+
+	/**
+	 * See {@link InfluenceMaps#fingerprint(HunterKillerState, List)}.
+	 * 
+	 * @param terrain
+	 *            The terrain of the state's map, or null if it should be looked up.
+	 */
+	public static long fingerprint(MapTerrain terrain, HunterKillerState state, List<MapLocation> locations) {
+		Map map = state.getMap();
+		if (terrain == null)
+			terrain = MapTerrain.of(map);
+		// Sum the mixed positions, so that the order of the locations does not matter
+		long sum = 0;
+		for (MapLocation location : locations) {
+			sum += mix(map.toPosition(location) + 1);
+		}
+		return 31 * (31 * terrain.getLayoutHash() + sum) + locations.size();
+	}
+
+	/**
+	 * Fingerprint of the input of {@link InfluenceMaps#calculateAllyPresence(HunterKillerState)}.
+	 */
+	public static long fingerprintAllyPresence(HunterKillerState state) {
+		return fingerprint(state, locateAlliedUnits(state));
+	}
+
+	/**
+	 * Fingerprint of the input of {@link InfluenceMaps#calculateSquadPresence(HunterKillerState)}. This includes all
+	 * allied structures rather than just the base, which only causes some unnecessary recalculations.
+	 */
+	public static long fingerprintSquadPresence(HunterKillerState state) {
+		return 31 * fingerprint(state, locateAlliedUnits(state)) + mix(fingerprint(state, locateAlliedStructures(state)));
+	}
 
-		// Calculate the distance map
-		return InfluenceMaps.createMap_DistanceTo(state, enemyLocations);
+	/**
+	 * Spreads the bits of a value, so that nearby values result in very different hashes.
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+		value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return value ^ (value >>> 33);
 	}
 
 	/** {@link InfluenceMaps#calculateDistanceToEnemyStructures(HunterKillerState)} */
@@ -494,80 +1155,102 @@ public class InfluenceMaps {
 	 *            them
 	 *            is.
 	 */
-	@SuppressWarnings("unchecked")
 	public static MatrixMap createMap_DistanceTo(HunterKillerState state, List<MapLocation> locations) {
+		return createMap_DistanceTo(MapTerrain.of(state.getMap()), state, locations);
+	}
+
+	/**
+	 * See {@link InfluenceMaps#createMap_DistanceTo(HunterKillerState, List)}.
+	 * 
+	 * @param terrain
+	 *            The terrain of the state's map.
+	 */
+	public static MatrixMap createMap_DistanceTo(MapTerrain terrain, HunterKillerState state, List<MapLocation> locations) {
 		// Get the objects from the state that we need to query
 		Map map = state.getMap();
 
-		// Create the MatrixMap to mimic the game map
-		MatrixMap valueMap = new MatrixMap(map.getMapWidth(), map.getMapHeight());
-		valueMap.reset(-1);
-
-		// Domain, Position, Action, Subject, ...
-		SearchContext<MatrixMap, Point, Point, GameObject, Path<Point>> context = new SearchContext<>();
+		// Collect the positions of the locations, these are the sources of the search
+		IntArray sources = new IntArray(locations.size());
+		for (MapLocation location : locations) {
+			sources.add(map.toPosition(location));
+		}
 
-		// Our domain will be the MatrixMap we are filling with values
-		context.domain(valueMap);
-		// We will do a breadth-first search and use an empty solution-strategy
-		context.search(breadthFirst((c, current) -> {
-			// We don't actually need to return a path to the target, since we only care about the distance
-			return null;
-		}));
-		// The goal strategy will be to always return false, which makes sure we visit every node we can reach
-		context.goal((c, current) -> false);
-		// The expansion strategy determines which nodes among the children should still be visited
-		context.expansion((c, current) -> {
-			// Get all children through expansion, we use Orthogonal expansion here because we can only move
-			// orthogonally in HunterKiller
-			Iterable<Integer> children = MatrixExpansionStrategy.EXPANSION_ORTHOGONAL.expand(c, current.location);
+		// Calculate the distances, and copy them into a MatrixMap that mimics the game map
+		int[] distances = calculateDistances(terrain, sources);
+		MatrixMap valueMap = new MatrixMap(map.getMapWidth(), map.getMapHeight());
+		for (int i = 0; i < distances.length; i++) {
+			valueMap.set(i, distances[i]);
+		}
 
-			// Add +1 to value
-			int nextValue = current.value + 1;
+		// System.out.println(valueMap);
+		return valueMap;
+	}
 
-			// Filter on positions we can expand from
-			StreamEx<Integer> expandables = StreamEx.of(children.iterator())
-													// Filter out any features that can't be traversed
-													.filter(i -> map.getFeatureAtLocation(map.toLocation(i))
-																	.isWalkable())
-													// Filter out any positions that have already been calculated and
-													// have a lower value than the 'nextValue'
-													.filter(i -> {
-														int val = c.domain()
-																	.get(i);
-														return val == -1 || val > nextValue;
-													});
+	/**
+	 * Calculates the walking distance to the closest of the sources, for all positions on the {@link Map}. All sources
+	 * are placed in the queue of a single breadth-first search at distance 0, so that each position is settled only
+	 * once, by the source closest to it.
+	 * 
+	 * Sources on positions that can not be walked on are still searched from, but keep a distance of -1 themselves,
+	 * as do all positions that can not be reached.
+	 * 
+	 * @param map
+	 *            The map to search on. Positions are indexed row by row, as in {@link Map#toPosition(MapLocation)}.
+	 * @param sources
+	 *            The positions to calculate the distance to.
+	 * @return The distance for each position.
+	 */
+	public static int[] calculateDistances(Map map, IntArray sources) {
+		return calculateDistances(MapTerrain.of(map), sources);
+	}
 
-			// Update the values of the children that turned out to still be expandable
-			List<Point> returnList = new ArrayList<Point>();
-			for (Integer number : expandables) {
-				// Set the current value (i.e. the distance we have currently travelled)
-				c.domain()
-					.set(number, nextValue);
-				// Add this node to the list of nodes to expand further
-				returnList.add(new Point(number, nextValue));
+	/**
+	 * See {@link InfluenceMaps#calculateDistances(Map, IntArray)}.
+	 * 
+	 * @param terrain
+	 *            The terrain of the map to search on.
+	 */
+	public static int[] calculateDistances(MapTerrain terrain, IntArray sources) {
+		int cells = terrain.getCells();
+		int[] neighbourStart = terrain.neighbourStart;
+		int[] neighbours = terrain.neighbours;
+
+		int[] distances = new int[cells];
+		Arrays.fill(distances, -1);
+
+		// Each position enters the queue at most once, apart from sources that can not be walked on
+		int[] queue = new int[cells + sources.size];
+		int head = 0, tail = 0;
+
+		// Place all sources in the queue, the reachable ones have distance 0
+		for (int i = 0; i < sources.size; i++) {
+			int source = sources.get(i);
+			if (terrain.isWalkable(source)) {
+				if (distances[source] == 0)
+					continue;
+				distances[source] = 0;
 			}
+			queue[tail++] = source;
+		}
 
-			// Return the list that can still be expanded
-			return returnList;
-		});
-
-		// Now that we have defined our search context, execute the actual searches
-		for (MapLocation location : locations) {
-			Point sourcePoint = new Point(map.toPosition(location), 0);
-			// Set value for these source locations on 0, if they are reachable
-			if (map.getFeatureAtLocation(location)
-					.isWalkable()) {
-				context.domain()
-						.set(sourcePoint.location, 0);
-			}
-			// Set the objects's location as the source for the search
-			context.source(sourcePoint);
-			// Execute it
-			context.execute();
+		// Go through the queue one distance at a time, the first time a position is reached is by its closest source
+		int distance = 0, distanceEnd = tail;
+		while (head < tail) {
+			if (head == distanceEnd) {
+				distance++;
+				distanceEnd = tail;
+			}
+			int current = queue[head++];
+			for (int n = neighbourStart[current]; n < neighbourStart[current + 1]; n++) {
+				int neighbour = neighbours[n];
+				if (distances[neighbour] == -1) {
+					distances[neighbour] = distance + 1;
+					queue[tail++] = neighbour;
+				}
+			}
 		}
 
-		// System.out.println(valueMap);
-		return valueMap;
+		return distances;
 	}
 
 	/**
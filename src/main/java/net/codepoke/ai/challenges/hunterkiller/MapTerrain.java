@@ -0,0 +1,228 @@
+package net.codepoke.ai.challenges.hunterkiller;
+
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import lombok.Getter;
+import net.codepoke.ai.challenge.hunterkiller.Map;
+import net.codepoke.ai.challenge.hunterkiller.MapLocation;
+import net.codepoke.ai.challenge.hunterkiller.gameobjects.mapfeature.Door;
+import net.codepoke.ai.challenge.hunterkiller.gameobjects.mapfeature.MapFeature;
+import net.codepoke.ai.challenge.hunterkiller.gameobjects.mapfeature.Structure;
+
+/**
+ * The static terrain of a {@link Map}: which positions can be walked on, the orthogonal neighbours of each position
+ * that can be walked on, and where the features are that can change state during a game. The walls and structures of a
+ * map do not move during a game, so the terrain only needs to be determined once per map. Maps with the same layout
+ * share the same instance, see {@link MapTerrain#of(Map)}.
+ *
+ * Every copy of a game state has its own {@link Map}, and finding the terrain of a map that has not been seen before
+ * requires going through all of its positions. Code that handles many states of the same game, such as a search, should
+ * therefore determine the terrain once and pass it on, instead of asking for the terrain of each state.
+ *
+ * Positions are indexed row by row, as {@code x + y * width}, which is the same as {@link Map#toPosition(MapLocation)}.
+ * The neighbours are stored in compressed rows: the neighbours of position {@code p} are found in
+ * {@link MapTerrain#neighbours} from index {@code neighbourStart[p]} up to, but not including,
+ * {@code neighbourStart[p + 1]}.
+ *
+ * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+ *
+ */
+public class MapTerrain {
+
+	/**
+	 * The map each thread most recently asked the terrain of, together with that terrain. Maps are compared by
+	 * identity, and are not kept alive by this cache.
+	 */
+	private static final ThreadLocal<LatestMap> latestMap = ThreadLocal.withInitial(LatestMap::new);
+	/**
+	 * The terrain of each layout that has been seen, by the hash of the layout.
+	 */
+	private static final HashMap<Long, MapTerrain> terrainPerLayout = new HashMap<Long, MapTerrain>();
+
+	/** Dimensions of the map. */
+	@Getter
+	private final int width;
+	@Getter
+	private final int height;
+	/**
+	 * Whether or not a unit can stand on each position.
+	 */
+	private final BitSet walkable;
+	/**
+	 * Whether or not each position holds a feature whose state can change during a game.
+	 */
+	private final BitSet changing;
+	/**
+	 * The positions of the features whose state can change during a game, such as doors that open and close and
+	 * structures that change control or health.
+	 */
+	public final int[] changingFeatures;
+	/**
+	 * Index into {@link MapTerrain#neighbours} of the first neighbour of each position, with one additional entry
+	 * marking the end of the last position's neighbours.
+	 */
+	public final int[] neighbourStart;
+	/**
+	 * The orthogonal neighbours that can be walked on, of all positions after each other.
+	 */
+	public final int[] neighbours;
+	/**
+	 * Hash of the dimensions and walkable positions of the map.
+	 */
+	@Getter
+	private final long layoutHash;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param width
+	 *            Width of the map.
+	 * @param height
+	 *            Height of the map.
+	 * @param walkable
+	 *            Whether or not a unit can stand on each position.
+	 * @param changing
+	 *            Whether or not each position holds a feature whose state can change during a game.
+	 */
+	public MapTerrain(int width, int height, BitSet walkable, BitSet changing) {
+		this.width = width;
+		this.height = height;
+		this.walkable = walkable;
+		this.changing = changing;
+		this.layoutHash = hash(width, height, walkable);
+
+		changingFeatures = new int[changing.cardinality()];
+		for (int position = changing.nextSetBit(0), index = 0; position >= 0; position = changing.nextSetBit(position + 1)) {
+			changingFeatures[index++] = position;
+		}
+
+		// Count the neighbours of each position first, so that they can be stored in a single array
+		int cells = width * height;
+		neighbourStart = new int[cells + 1];
+		for (int position = 0; position < cells; position++) {
+			neighbourStart[position + 1] = neighbourStart[position] + countNeighbours(position);
+		}
+
+		neighbours = new int[neighbourStart[cells]];
+		for (int position = 0, index = 0; position < cells; position++) {
+			int x = position % width;
+			// We can only move orthogonally in HunterKiller
+			if (position >= width && walkable.get(position - width))
+				neighbours[index++] = position - width;
+			if (position + width < cells && walkable.get(position + width))
+				neighbours[index++] = position + width;
+			if (x > 0 && walkable.get(position - 1))
+				neighbours[index++] = position - 1;
+			if (x < width - 1 && walkable.get(position + 1))
+				neighbours[index++] = position + 1;
+		}
+	}
+
+	/**
+	 * Returns the terrain of a map. The terrain is determined the first time a map is seen, and shared with all maps
+	 * that have the same layout. Asking again for the map that was asked for last on the same thread is cheap, any other
+	 * map is scanned position by position.
+	 *
+	 * @param map
+	 *            The map to get the terrain of.
+	 */
+	public static MapTerrain of(Map map) {
+		LatestMap latest = latestMap.get();
+		if (latest.map.get() == map)
+			return latest.terrain;
+
+		// Determine which positions can be walked on, and which hold features that can change
+		int width = map.getMapWidth();
+		int height = map.getMapHeight();
+		BitSet walkable = new BitSet(width * height);
+		BitSet changing = new BitSet(width * height);
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				MapFeature feature = map.getFeatureAtLocation(new MapLocation(x, y));
+				if (feature.isWalkable())
+					walkable.set(x + y * width);
+				if (feature instanceof Door || feature instanceof Structure)
+					changing.set(x + y * width);
+			}
+		}
+
+		// Reuse the terrain of a map with the same layout, if there is one
+		MapTerrain terrain;
+		synchronized (terrainPerLayout) {
+			terrain = terrainPerLayout.get(hash(width, height, walkable));
+			if (terrain == null || terrain.width != width || terrain.height != height || !terrain.walkable.equals(walkable)
+				|| !terrain.changing.equals(changing)) {
+				terrain = new MapTerrain(width, height, walkable, changing);
+				terrainPerLayout.put(terrain.layoutHash, terrain);
+			}
+		}
+
+		latest.map = new WeakReference<Map>(map);
+		latest.terrain = terrain;
+		return terrain;
+	}
+
+	/**
+	 * Returns the number of positions on the map.
+	 */
+	public int getCells() {
+		return width * height;
+	}
+
+	/**
+	 * Returns the number of positions that can be walked on.
+	 */
+	public int getWalkableCells() {
+		return walkable.cardinality();
+	}
+
+	/**
+	 * Whether or not a unit can stand on a position.
+	 */
+	public boolean isWalkable(int position) {
+		return walkable.get(position);
+	}
+
+	/**
+	 * Returns the number of orthogonal neighbours of a position that can be walked on.
+	 */
+	private int countNeighbours(int position) {
+		int x = position % width;
+		int count = 0;
+		if (position >= width && walkable.get(position - width))
+			count++;
+		if (position + width < width * height && walkable.get(position + width))
+			count++;
+		if (x > 0 && walkable.get(position - 1))
+			count++;
+		if (x < width - 1 && walkable.get(position + 1))
+			count++;
+		return count;
+	}
+
+	/**
+	 * Returns a hash of the dimensions and walkable positions of a map.
+	 */
+	private static long hash(int width, int height, BitSet walkable) {
+		long hash = 1125899906842597L;
+		hash = 31 * hash + width;
+		hash = 31 * hash + height;
+		for (long word : walkable.toLongArray()) {
+			hash = 31 * hash + word;
+		}
+		return hash;
+	}
+
+	/**
+	 * The map a thread most recently asked the terrain of, see {@link MapTerrain#latestMap}.
+	 */
+	private static class LatestMap {
+
+		WeakReference<Map> map = new WeakReference<Map>(null);
+		MapTerrain terrain;
+
+	}
+
+}
@@ -27,7 +27,43 @@ public abstract class BaseBot<S, A>
 								.toString());
 	}
 
-	private static Random r = new Random();
+	/**
+	 * Random number generator for each thread, so that bots can simulate on multiple threads.
+	 */
+	private static final ThreadLocal<Random> random = ThreadLocal.withInitial(Random::new);
+
+	/**
+	 * Returns the random number generator of the current thread.
+	 */
+	public static Random getRandom() {
+		return random.get();
+	}
+
+	/**
+	 * Sets the seed of the random number generator of the current thread. Simulations that start from the same seed
+	 * draw the same random numbers, which allows them to be compared with less noise.
+	 * 
+	 * @param seed
+	 *            The seed to use.
+	 */
+	public static void setRandomSeed(long seed) {
+		random.get()
+				.setSeed(seed);
+	}
+
+	/**
+	 * Replaces the random number generator of the current thread, and returns the generator that was replaced so that
+	 * it can be put back afterwards. This allows a generator to be reseeded without disturbing the numbers the thread
+	 * would otherwise draw.
+	 * 
+	 * @param generator
+	 *            The generator to use on the current thread.
+	 */
+	public static Random setRandom(Random generator) {
+		Random previous = random.get();
+		random.set(generator);
+		return previous;
+	}
 
 	public static final int NOT_SET_TIME_BUFFER = -1;
 
@@ -58,8 +94,15 @@ public abstract class BaseBot<S, A>
 		// Prune some orders we do not want to investigate
 		RandomBot.filterFriendlyFire(legalOrders, unit, state.getMap());
 		// Return a random order, if there are any available
+		return getRandomOrder(legalOrders);
+	}
+
+	/**
+	 * Returns a random order from a collection of legal orders, or null if the collection is empty.
+	 */
+	public static <T> T getRandomOrder(List<T> legalOrders) {
 		if (!legalOrders.isEmpty()) {
-			return legalOrders.get(r.nextInt(legalOrders.size()));
+			return legalOrders.get(getRandom().nextInt(legalOrders.size()));
 		}
 		return null;
 	}
@@ -69,7 +112,7 @@ public abstract class BaseBot<S, A>
 		List<StructureOrder> legalOrders = MoveGenerator.getAllLegalOrders(state, structure);
 		// Return a random order, if there are any available
 		if (!legalOrders.isEmpty()) {
-			return legalOrders.get(r.nextInt(legalOrders.size()));
+			return legalOrders.get(getRandom().nextInt(legalOrders.size()));
 		}
 		return null;
 	}
@@ -1,9 +1,20 @@
 package net.codepoke.ai.challenges.hunterkiller.bots;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Supplier;
 
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
@@ -15,6 +26,7 @@ import net.codepoke.ai.challenge.hunterkiller.HunterKillerState;
 import net.codepoke.ai.challenge.hunterkiller.Map;
 import net.codepoke.ai.challenge.hunterkiller.MoveGenerator;
 import net.codepoke.ai.challenge.hunterkiller.Player;
+import net.codepoke.ai.challenge.hunterkiller.enums.UnitOrderType;
 import net.codepoke.ai.challenge.hunterkiller.gameobjects.GameObject;
 import net.codepoke.ai.challenge.hunterkiller.gameobjects.mapfeature.Structure;
 import net.codepoke.ai.challenge.hunterkiller.gameobjects.unit.Unit;
@@ -23,6 +35,7 @@ import net.codepoke.ai.challenge.hunterkiller.orders.StructureOrder;
 import net.codepoke.ai.challenge.hunterkiller.orders.UnitOrder;
 import net.codepoke.ai.challenges.hunterkiller.InfluenceMaps;
 import net.codepoke.ai.challenges.hunterkiller.InfluenceMaps.KnowledgeBase;
+import net.codepoke.ai.challenges.hunterkiller.MapTerrain;
 import net.codepoke.ai.challenges.hunterkiller.bots.evaluation.HunterKillerStateEvaluation;
 import net.codepoke.ai.challenges.hunterkiller.bots.sorting.ControlledObjectSortingStrategy;
 import net.codepoke.ai.challenges.hunterkiller.bots.sorting.InformedSorting;
@@ -74,7 +87,7 @@ public class HMCTSBot
 	/**
 	 * Rules of HunterKiller.
 	 */
-	HunterKillerRules rulesEngine = new HunterKillerRules();
+	ThreadLocal<HunterKillerRules> rulesEngine = ThreadLocal.withInitial(HunterKillerRules::new);
 
 	/**
 	 * The knowledgebase we are using.
@@ -105,6 +118,27 @@ public class HMCTSBot
 	 * Defines the C constant used in the UCT algorithm.
 	 */
 	private static final double UCT_C_CONSTANT_DEFAULT = 0.1;
+	/**
+	 * Value indicating that no time budget is set, the search will then go through a fixed number of iterations.
+	 */
+	public static final int TIME_BUDGET_NOT_SET = -1;
+	/**
+	 * Number of milliseconds that is subtracted from the time budget, to leave time for constructing the solution.
+	 */
+	private static final int TIME_BUDGET_SAFETY_MARGIN_MS = 25;
+	/**
+	 * Number of iterations MCTS goes through before the time budget is checked again.
+	 */
+	private static final int ITERATIONS_PER_BUDGET_CHECK = 10;
+	/**
+	 * Number of milliseconds the search is allowed to use each turn, or {@link HMCTSBot#TIME_BUDGET_NOT_SET}.
+	 */
+	private int timeBudget = TIME_BUDGET_NOT_SET;
+	/**
+	 * The number of iterations that the most recent search went through.
+	 */
+	@Getter
+	private int lastIterationCount = 0;
 	/**
 	 * Helps us set up a MCTS.
 	 */
@@ -132,11 +166,150 @@ public class HMCTSBot
 	/**
 	 * Bot that can be called to simulate actions during a MCTS-playout.
 	 */
-	private BaseBot<HunterKillerState, HunterKillerAction> playoutBot;
+	private ThreadLocal<BaseBot<HunterKillerState, HunterKillerAction>> playoutBot;
 	/**
 	 * Information on object-orders that we want to retain during the search.
 	 */
 	private SideInformation sideInformation;
+	/**
+	 * Strategy that constructs the action to return from the search tree.
+	 */
+	private SolutionStrategy<TreeSearchNode<HMCTSState, PartialAction>, HunterKillerAction> solution;
+	/**
+	 * The context of the most recent search.
+	 */
+	private SearchContext<Object, HMCTSState, PartialAction, Object, HunterKillerAction> context;
+	/**
+	 * Whether or not the partial actions and states created during a search are taken from an arena, which is reset
+	 * at the start of each search. The arena is not used when the search tree is reused between turns.
+	 */
+	@Getter
+	private boolean useArena = false;
+	/**
+	 * All arenas that have been created, one for each thread that has searched.
+	 */
+	private final Array<SearchArena> arenas = new Array<SearchArena>();
+	/**
+	 * The arena of the current thread.
+	 */
+	private final ThreadLocal<SearchArena> arena = ThreadLocal.withInitial(() -> {
+		SearchArena arena = new SearchArena();
+		synchronized (arenas) {
+			arenas.add(arena);
+		}
+		return arena;
+	});
+	/**
+	 * Whether or not the children of a node are made available to the selection progressively.
+	 */
+	@Getter
+	private boolean progressiveWidening = false;
+	/**
+	 * Number of children that are available to the selection in a node that has not been visited yet, when progressive
+	 * widening is used.
+	 */
+	private static final int PROGRESSIVE_WIDENING_INITIAL_CHILDREN = 2;
+	/**
+	 * Exponent of a node's number of visits that determines how many additional children are available to the
+	 * selection, when progressive widening is used.
+	 */
+	private static final double PROGRESSIVE_WIDENING_EXPONENT = 0.5;
+	/**
+	 * Whether or not side information is used during the search.
+	 */
+	private boolean useSideInformation;
+	/**
+	 * Table that lets partial actions leading to the same state and partial combined action share their statistics,
+	 * null if transpositions are not used.
+	 */
+	private TranspositionTable transpositions;
+	/**
+	 * Maximum number of entries the transposition table holds.
+	 */
+	private static final int TRANSPOSITION_TABLE_CAPACITY = 50000;
+	/**
+	 * Cache of the legal orders of units, shared by the expansion and the action completion during a search.
+	 */
+	private LegalOrderCache legalOrders = new LegalOrderCache();
+	/**
+	 * Whether or not the search tree of the previous turn should be reused, if it contains the current state.
+	 */
+	@Getter
+	private boolean reuseTree = false;
+	/**
+	 * Maximum number of times the rules are applied while looking for the current state in the previous search tree.
+	 */
+	private static final int TREE_REUSE_MAX_REPLAYS = 250;
+	/**
+	 * Number of times the rules can still be applied during the current look-up in the previous search tree.
+	 */
+	private int replaysLeft;
+	/**
+	 * Root of the search tree of the previous turn.
+	 */
+	private TreeSearchNode<HMCTSState, PartialAction> previousRoot;
+	/**
+	 * The state the previous search started from.
+	 */
+	private HunterKillerState previousState;
+	/**
+	 * The orders we returned after the previous search.
+	 */
+	private Array<HunterKillerOrder> previousOrders;
+	/**
+	 * Bots that each run an independent search next to this one, when root parallelisation is used.
+	 */
+	private Array<HMCTSBot> rootSearches = new Array<HMCTSBot>();
+	/**
+	 * Number of threads that search through the same tree, when tree parallelisation is used.
+	 */
+	private int treeSearchThreads = 1;
+	/**
+	 * Defines the C constant used in the UCT algorithm.
+	 */
+	private double uctC;
+	/**
+	 * The value that is subtracted from a node's score for each thread that is currently searching through it.
+	 */
+	private static final double VIRTUAL_LOSS = 1.0;
+	/**
+	 * The partial actions that the current thread has applied a virtual loss to during its current iteration.
+	 */
+	private ThreadLocal<Array<PartialAction>> virtualLosses = ThreadLocal.withInitial(() -> new Array<PartialAction>());
+	/**
+	 * Number of playouts that are run from each leaf, when leaf parallelisation is used.
+	 */
+	private int playoutsPerLeaf = 1;
+	/**
+	 * Strategy used to evaluate the states at the end of a playout.
+	 */
+	private StateEvaluation<HMCTSState, PartialAction, TreeSearchNode<HMCTSState, PartialAction>> evaluation;
+	/**
+	 * Pool of threads on which the parallel searches are run.
+	 */
+	private ExecutorService searchPool;
+
+	/**
+	 * The ways in which a search can be divided over multiple threads.
+	 * 
+	 * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+	 *
+	 */
+	public enum Parallelisation {
+		/**
+		 * Each thread builds its own tree, the statistics of the roots are merged afterwards.
+		 */
+		ROOT,
+		/**
+		 * All threads build the same tree, using virtual loss to spread out over it.
+		 */
+		TREE,
+		/**
+		 * A single tree is built, but each leaf is played out by all threads and the average evaluation is
+		 * backpropagated.
+		 */
+		LEAF;
+	}
 	/**
 	 * Number of rounds after which the playout of a node is cut off.
 	 */
@@ -159,11 +332,100 @@ public class HMCTSBot
 		this(useSideInformation, sortingStrategy, botForPlayout, UCT_C_CONSTANT_DEFAULT);
 	}
 
-	@SuppressWarnings("unchecked")
 	public HMCTSBot(boolean useSideInformation, ControlledObjectSortingStrategy sortingStrategy,
 					BaseBot<HunterKillerState, HunterKillerAction> botForPlayout, double C) {
+		this(useSideInformation, sortingStrategy, botForPlayout, C, TIME_BUDGET_NOT_SET);
+	}
+
+	/**
+	 * Constructor for a bot that runs several independent searches in parallel (root parallelisation). Each search
+	 * uses its own sorting strategy, playout bot, rules engine and side information, which is why these are supplied.
+	 * 
+	 * @param numberOfSearches
+	 *            The number of independent searches to run each turn, normally the number of available cores.
+	 */
+	public HMCTSBot(boolean useSideInformation, Supplier<? extends ControlledObjectSortingStrategy> sortingStrategy,
+					Supplier<? extends BaseBot<HunterKillerState, HunterKillerAction>> botForPlayout, double C, int timeBudget,
+					int numberOfSearches) {
+		this(useSideInformation, sortingStrategy, botForPlayout, C, timeBudget, numberOfSearches, Parallelisation.ROOT);
+	}
+
+	/**
+	 * Constructor for a bot that divides its search over multiple threads.
+	 * 
+	 * @param numberOfThreads
+	 *            The number of threads to search with, normally the number of available cores.
+	 * @param parallelisation
+	 *            Whether each thread builds its own tree ({@link Parallelisation#ROOT}), all threads build the same tree
+	 *            ({@link Parallelisation#TREE}), or all threads play out the same leaf ({@link Parallelisation#LEAF}).
+	 *            With tree and leaf parallelisation the sorting strategy is shared by all threads, while each thread
+	 *            uses its own playout bot.
+	 */
+	@SuppressWarnings("unchecked")
+	public HMCTSBot(boolean useSideInformation, Supplier<? extends ControlledObjectSortingStrategy> sortingStrategy,
+					Supplier<? extends BaseBot<HunterKillerState, HunterKillerAction>> botForPlayout, double C, int timeBudget,
+					int numberOfThreads, Parallelisation parallelisation) {
+		this(useSideInformation, sortingStrategy != null ? sortingStrategy.get() : null, botForPlayout != null ? botForPlayout.get()
+				: null, C, timeBudget);
+
+		if (numberOfThreads > 1) {
+			if (parallelisation == Parallelisation.ROOT) {
+				// Create the bots for the other searches
+				for (int i = 1; i < numberOfThreads; i++) {
+					rootSearches.add(new HMCTSBot(useSideInformation, sortingStrategy != null ? sortingStrategy.get() : null,
+													botForPlayout != null ? botForPlayout.get() : null, C, timeBudget));
+				}
+				this.botName += "_rp" + numberOfThreads;
+			} else if (parallelisation == Parallelisation.LEAF) {
+				playoutsPerLeaf = numberOfThreads;
+
+				// Each thread needs its own playout bot
+				if (botForPlayout != null)
+					playoutBot = ThreadLocal.withInitial(botForPlayout);
+
+				// The playouts store their averaged evaluation in the state they return
+				builder.evaluation(averagedEvaluation(evaluation));
+				this.botName += "_lp" + numberOfThreads;
+			} else {
+				treeSearchThreads = numberOfThreads;
+
+				// Each thread needs its own playout bot
+				if (botForPlayout != null)
+					playoutBot = ThreadLocal.withInitial(botForPlayout);
+
+				// Selection, expansion and backpropagation need to be safe to use from multiple threads
+				configureSelection();
+				builder.expansion(concurrentExpansion(TreeExpansion.Util.createMinimumTExpansion(MIN_T_VISIT_THRESHOLD_FOR_EXPANSION)));
+				if (!useSideInformation)
+					builder.backPropagation(concurrentBackPropagation());
+				this.botName += "_tp" + numberOfThreads;
+			}
+
+			// Use daemon threads, so that the pool does not keep the application alive
+			searchPool = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param timeBudget
+	 *            Number of milliseconds the search is allowed to use each turn. When set to
+	 *            {@link HMCTSBot#TIME_BUDGET_NOT_SET}, the search goes through a fixed number of iterations instead.
+	 */
+	@SuppressWarnings("unchecked")
+	public HMCTSBot(boolean useSideInformation, ControlledObjectSortingStrategy sortingStrategy,
+					BaseBot<HunterKillerState, HunterKillerAction> botForPlayout, double C, int timeBudget) {
 		super(myUID, HunterKillerState.class, HunterKillerAction.class);
 
+		this.timeBudget = timeBudget;
+		this.uctC = C;
+		this.useSideInformation = useSideInformation;
+
 		// If nothing was specified, use some defaults
 		if (sortingStrategy == null)
 			sortingStrategy = useSideInformation ? new InformedSorting() : new RandomSorting();
@@ -172,8 +434,8 @@ public class HMCTSBot
 
 		// Create the knowledge-base that we will be using
 		kb = new KnowledgeBase();
-		kb.put(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_STRUCTURE, InfluenceMaps::calculateDistanceToEnemyStructures);
-		kb.put(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY, InfluenceMaps::calculateDistanceToAnyEnemy);
+		kb.putDistanceLayer(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_STRUCTURE, InfluenceMaps::locateEnemyStructures);
+		kb.putDistanceLayer(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY, InfluenceMaps::locateAnyEnemy);
 
 		sorting = sortingStrategy;
 		// If we are creating a sorting based on the distance to the nearest enemy, set reference to KB.
@@ -182,109 +444,1166 @@ public class HMCTSBot
 			((LeastDistanceToEnemySorting) sorting).setKnowledgeLayer(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY);
 		}
 
-		playoutBot = botForPlayout;
+		final BaseBot<HunterKillerState, HunterKillerAction> bot = botForPlayout;
+		playoutBot = ThreadLocal.withInitial(() -> bot);
+
+		// Instantiate the various strategies
+		goal = roundCutoff(PLAYOUT_ROUND_CUTOFF);
+		actionCompletion = new RandomActionCompletion(legalOrders);
+		gameLogic = new HMCTSGameLogic(sorting);
+		sideInformation = new SideInformation();
+		playout = new HKPlayoutStrategy();
+
+		// Build the MCTS
+		builder = MCTS.<Object, HMCTSBot.HMCTSState, HMCTSBot.PartialAction, Object, HunterKillerAction> builder();
+		builder.expansion(TreeExpansion.Util.createMinimumTExpansion(MIN_T_VISIT_THRESHOLD_FOR_EXPANSION));
+		builder.selection(TreeSelection.Util.selectBestNode(TreeSelection.Util.scoreUCB(C), SELECTION_VISIT_MINIMUM_FOR_EVALUATION));
+		evaluation = evaluate(kb);
+		builder.evaluation(evaluation);
+		builder.iterations(MCTS_NUMBER_OF_ITERATIONS);
+
+		if (useSideInformation) {
+			// Set the side information into the sorting, if it can use it
+			if (sorting instanceof InformedSorting) {
+				((InformedSorting) sorting).setInformation(sideInformation);
+			}
+			builder.backPropagation(sideInformation);
+			solution = sideInformation;
+			builder.playout(sideInformation);
+		} else {
+			builder.backPropagation(TreeBackPropagation.Util.EVALUATE_ONCE_AND_COLOR);
+			solution = reconstructAction(actionCompletion);
+			builder.playout(playout);
+		}
+		builder.solution(solution);
+
+		// Adjust our name according to some settings, this will help during testing and/or watching replays
+		this.botName = "HMCTS" + (useSideInformation ? "_i_" : "_n_") + sorting.getClass()
+																				.getSimpleName() + "_" + bot.getClass()
+																													.getSimpleName();
+	}
+
+	@Override
+	public HunterKillerAction handle(HunterKillerState state) {
+		long turnStart = System.nanoTime();
+		Stopwatch actionTimer = new Stopwatch();
+		actionTimer.start();
+
+		// Check if we need to wait
+		waitTimeBuffer();
+
+		// Check if we want to update our knowledgebase
+		if (state.getCurrentRound() <= state.getNumberOfPlayers()) {
+			kb.update(state);
+		}
+
+		// Check that we can even issue any orders
+		if (state.getActivePlayer()
+					.getUnitIDs().size == 0) {
+			boolean canDoSomething = false;
+			for (Structure structure : state.getActivePlayer()
+											.getStructures(state.getMap())) {
+				if (structure.canSpawnAUnit(state))
+					canDoSomething = true;
+			}
+			if (!canDoSomething)
+				return state.createNullMove();
+		}
+
+		System.out.println(this.botName);
+		System.out.println("Starting an MCTS-search in round " + state.getCurrentRound());
+
+		// Create a static sorting, it is only used if the sorting strategy is static
+		Player player = state.getActivePlayer();
+		IntArray controlledIDs = new IntArray(player.getUnitIDs());
+		controlledIDs.addAll(player.getStructureIDs());
+		controlledIDs.shuffle();
+
+		// Keep searching until our budget, minus the safety margin, has been used
+		long deadline = turnStart + TimeUnit.NANOSECONDS.convert(timeBudget - TIME_BUDGET_SAFETY_MARGIN_MS, TimeUnit.MILLISECONDS);
+
+		HunterKillerAction action;
+		if (rootSearches.size > 0) {
+			// Search with multiple independent trees and merge their results
+			action = searchRootParallel(state, controlledIDs, deadline);
+		} else if (treeSearchThreads > 1) {
+			// Search with multiple threads in the same tree
+			action = searchTreeParallel(state, controlledIDs, deadline);
+		} else {
+			HMCTSState searchState = setupSearch(state, controlledIDs);
+
+			// Search for an action
+			TreeSearchNode<HMCTSState, PartialAction> root = null;
+			if (timeBudget == TIME_BUDGET_NOT_SET && !reuseTree) {
+				context.execute();
+				lastIterationCount = MCTS_NUMBER_OF_ITERATIONS;
+			} else {
+				// Check if we can continue on the tree of the previous turn
+				if (reuseTree) {
+					TreeSearchNode<HMCTSState, PartialAction> descendant = findDescendant(state);
+					if (descendant != null)
+						root = reroot(descendant, searchState);
+				}
+				root = growTree(searchState, root, deadline);
+				constructSolution(root);
+			}
+
+			// Check if the search was successful
+			if (context.status() != Status.Success) {
+				System.err.println("ERROR; search-context returned with status: " + context.status());
+				// Return a random action
+				return RandomBot.createRandomAction(state);
+			}
+
+			// Get the solution of the search
+			action = context.solution();
+
+			// Remember the tree, so that we can continue on it next turn
+			if (reuseTree) {
+				previousRoot = root;
+				previousState = state.copy();
+				previousOrders = new Array<HunterKillerOrder>(action.getOrders());
+			}
+		}
+
+		long time = actionTimer.end();
+		System.out.println("MCTS returned with " + action.getOrders().size + " orders after " + lastIterationCount + " iterations.");
+		System.out.println("My action calculation time was " + TimeUnit.MILLISECONDS.convert(time, TimeUnit.NANOSECONDS) + " ms");
+		System.out.println("");
+
+		return action;
+	}
+
+	/**
+	 * Prepares this bot for a search on the provided state, by setting up the sorting, side information and the
+	 * search context.
+	 * 
+	 * @param state
+	 *            The game state to search for.
+	 * @param controlledIDs
+	 *            The sorting to use for the controlled objects, if this bot uses a static sorting.
+	 * @return The state the search starts from.
+	 */
+	private HMCTSState setupSearch(HunterKillerState state, IntArray controlledIDs) {
+		// Set the static sorting, if applicable
+		if (sorting instanceof StaticSorting) {
+			((StaticSorting) sorting).setStaticSorting(new IntArray(controlledIDs));
+		}
+
+		// Reset the side information, transpositions and legal orders before searching. The states of the search are
+		// hashed with the terrain of this map, so that it is not looked up again for each copy of the state.
+		sideInformation.resetInformation();
+		legalOrders.clear(MapTerrain.of(state.getMap()));
+		if (transpositions != null)
+			transpositions.clear();
+
+		// We are going to use a special state as root for the search, so that we can keep track of all selected
+		// orders
+		HMCTSState searchState = new HMCTSState(state.copy(), gameLogic.sorting);
+
+		// Everything that was taken from the arenas during the previous search can be reused
+		synchronized (arenas) {
+			for (SearchArena arena : arenas) {
+				arena.reset();
+			}
+		}
+
+		// Setup a search with the search-state as source
+		builder.iterations(MCTS_NUMBER_OF_ITERATIONS);
+		builder.solution(solution);
+		context = SearchContext.gameSearchSetup(gameLogic, builder.build(), null, searchState, null);
+
+		return searchState;
+	}
+
+	/**
+	 * Grows a search tree from the provided state, without constructing a solution. If a time budget is set, the
+	 * search runs in batches of {@link HMCTSBot#ITERATIONS_PER_BUDGET_CHECK} iterations on the same tree until the
+	 * deadline has passed, at least one batch is always run. Otherwise it goes through a fixed number of iterations.
+	 * 
+	 * @param searchState
+	 *            The state to start the search from.
+	 * @param root
+	 *            The root of an existing tree to continue on, or null if a new tree should be grown.
+	 * @param deadline
+	 *            Moment in time (see {@link System#nanoTime()}) after which no new batch should be started.
+	 * @return The root of the search tree.
+	 */
+	private TreeSearchNode<HMCTSState, PartialAction> growTree(HMCTSState searchState, TreeSearchNode<HMCTSState, PartialAction> root,
+			long deadline) {
+		// Create the root ourselves, so that every batch keeps building on the same tree
+		if (root == null)
+			root = new TreeSearchNode<HMCTSState, PartialAction>(searchState.copy(), null);
+
+		context.search(buildIterationSearch());
+		lastIterationCount = iterate(context, root, deadline);
+
+		return root;
+	}
+
+	/**
+	 * Sets whether or not partial actions that lead to the same state and partial combined action should share their
+	 * statistics. The selection then scores nodes on the shared statistics.
+	 * 
+	 * @param useTranspositions
+	 *            Whether or not to use a transposition table.
+	 */
+	public void setUseTranspositions(boolean useTranspositions) {
+		transpositions = useTranspositions ? new TranspositionTable(TRANSPOSITION_TABLE_CAPACITY) : null;
+		for (HMCTSBot search : rootSearches) {
+			search.setUseTranspositions(useTranspositions);
+		}
+
+		// With tree parallelisation the strategies already score and update the shared statistics
+		if (treeSearchThreads > 1)
+			return;
+
+		configureSelection();
+		if (!useSideInformation)
+			builder.backPropagation(useTranspositions ? concurrentBackPropagation() : TreeBackPropagation.Util.EVALUATE_ONCE_AND_COLOR);
+	}
+
+	/**
+	 * Sets whether or not the children of a node should be added to the tree progressively, as the node's number of
+	 * visits grows. The orders of an expansion are ranked by a cheap ordering: attacks first, then moves, then
+	 * rotations. Only the first few become children when the node is expanded, the partial actions and nodes for the
+	 * others are only created once the node has been visited often enough.
+	 * 
+	 * @param progressiveWidening
+	 *            Whether or not to use progressive widening.
+	 */
+	public void setProgressiveWidening(boolean progressiveWidening) {
+		this.progressiveWidening = progressiveWidening;
+		for (HMCTSBot search : rootSearches) {
+			search.setProgressiveWidening(progressiveWidening);
+		}
+		configureSelection();
+	}
+
+	/**
+	 * Sets the selection strategy in the builder, according to the current parallelisation, transposition and
+	 * widening settings.
+	 */
+	private void configureSelection() {
+		TreeSelection<HMCTSState, PartialAction> selection;
+		// Use the statistics in the partial actions if they are shared between nodes or threads
+		if (treeSearchThreads > 1 || transpositions != null) {
+			selection = TreeSelection.Util.selectBestNode(node -> scoreVirtualLossUCB(node, uctC), SELECTION_VISIT_MINIMUM_FOR_EVALUATION);
+		} else {
+			selection = TreeSelection.Util.selectBestNode(TreeSelection.Util.scoreUCB(uctC), SELECTION_VISIT_MINIMUM_FOR_EVALUATION);
+		}
+
+		if (progressiveWidening)
+			selection = widenedSelection(selection);
+		// The widening adds children to the node, so it needs to happen while the node is locked
+		if (treeSearchThreads > 1)
+			selection = concurrentSelection(selection);
+		builder.selection(selection);
+	}
+
+	/**
+	 * Selection that first adds the node's pending children to the tree, until the node has
+	 * {@link HMCTSBot#widenedChildren(int)} children, and then selects among the children using the provided selection.
+	 * 
+	 * @param selection
+	 *            The selection to use once the node has been widened.
+	 */
+	private TreeSelection<HMCTSState, PartialAction> widenedSelection(TreeSelection<HMCTSState, PartialAction> selection) {
+		return (context, node) -> {
+			widen(node);
+			return selection.selectNextNode(context, node);
+		};
+	}
+
+	/**
+	 * Adds children to the node from the pending orders of its expansion, up to the number of children that is
+	 * allowed for the node's number of visits.
+	 * 
+	 * @param node
+	 *            The node to widen.
+	 */
+	private void widen(TreeSearchNode<HMCTSState, PartialAction> node) {
+		Array<TreeSearchNode<HMCTSState, PartialAction>> children = node.getChildren();
+		if (children.size == 0)
+			return;
+		// All children of an expansion refer to the same pending orders
+		PendingChildren pending = children.first()
+											.getPayload().pending;
+		if (pending == null)
+			return;
+
+		int allowed = widenedChildren(node.getVisits());
+		while (children.size < allowed && pending.hasNext()) {
+			TreeSearchNode<HMCTSState, PartialAction> child = new TreeSearchNode<HMCTSState, PartialAction>(null, pending.next());
+			child.setParent(node);
+			children.add(child);
+		}
+	}
+
+	/**
+	 * Returns the number of children that are available to the selection in a node with the provided number of visits.
+	 */
+	private static int widenedChildren(int visits) {
+		return PROGRESSIVE_WIDENING_INITIAL_CHILDREN + (int) Math.pow(visits, PROGRESSIVE_WIDENING_EXPONENT);
+	}
+
+	/**
+	 * Returns the provided orders ranked by how promising they are expected to be. Attacks come first, then moves and
+	 * then rotations, with ties broken randomly. The provided list is not modified, since it may be shared through the
+	 * {@link LegalOrderCache}.
+	 * 
+	 * @param orders
+	 *            The legal orders for a single dimension.
+	 */
+	private static Array<HunterKillerOrder> rankOrders(List<? extends HunterKillerOrder> orders) {
+		// Shuffle into a new array using the thread's own generator
+		Random random = getRandom();
+		Array<HunterKillerOrder> shuffled = new Array<HunterKillerOrder>(false, orders.size());
+		for (HunterKillerOrder order : orders) {
+			shuffled.add(order);
+			shuffled.swap(shuffled.size - 1, random.nextInt(shuffled.size));
+		}
+
+		// Stable pass per priority, the priorities are few so this avoids sorting altogether
+		Array<HunterKillerOrder> ranked = new Array<HunterKillerOrder>(true, shuffled.size);
+		for (int priority = 0; priority <= ORDER_PRIORITY_LOWEST; priority++) {
+			for (HunterKillerOrder order : shuffled) {
+				if (orderPriority(order) == priority)
+					ranked.add(order);
+			}
+		}
+		return ranked;
+	}
+
+	/**
+	 * The lowest priority returned by {@link HMCTSBot#orderPriority(HunterKillerOrder)}.
+	 */
+	private static final int ORDER_PRIORITY_LOWEST = 2;
+
+	/**
+	 * Returns the priority of an order when seeding progressive widening, where a lower value is more promising.
+	 */
+	private static int orderPriority(HunterKillerOrder order) {
+		if (order instanceof UnitOrder) {
+			UnitOrder unitOrder = (UnitOrder) order;
+			if (unitOrder.isAttackOrder())
+				return 0;
+			if (unitOrder.getOrderType() == UnitOrderType.MOVE)
+				return 1;
+			return ORDER_PRIORITY_LOWEST;
+		}
+		return 0;
+	}
+
+	/**
+	 * The ranked orders of an expansion that have not been added to the tree as children yet, when progressive
+	 * widening is used. Holds everything that is needed to create their partial actions later on, since the state
+	 * that was expanded may have been changed or reused by then.
+	 * 
+	 * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+	 *
+	 */
+	private class PendingChildren {
+
+		/**
+		 * The ID of the player that is acting in the expanded state.
+		 */
+		final int player;
+		/**
+		 * The ordering of the combined action in the expanded state.
+		 */
+		final IntArray currentOrdering;
+		/**
+		 * The hash of the expanded state, see {@link HMCTSState#hashMethod()}.
+		 */
+		final long hash;
+		/**
+		 * The dimension that was expanded.
+		 */
+		final int dimension;
+		/**
+		 * All orders of the expansion, ranked by {@link HMCTSBot#rankOrders(List)}.
+		 */
+		final Array<HunterKillerOrder> orders;
+		/**
+		 * Index of the next order that should become a child.
+		 */
+		int next = 0;
+
+		PendingChildren(HMCTSState state, int dimension, Array<HunterKillerOrder> orders) {
+			this.player = state.state.getCurrentPlayer();
+			this.currentOrdering = state.combinedAction.currentOrdering;
+			this.hash = state.hashMethod();
+			this.dimension = dimension;
+			this.orders = orders;
+		}
+
+		boolean hasNext() {
+			return next < orders.size;
+		}
+
+		/**
+		 * Creates the partial action for the next pending order.
+		 */
+		PartialAction next() {
+			PartialAction action = createPartialAction(player, currentOrdering, hash, orders.get(next++), dimension);
+			action.pending = this;
+			return action;
+		}
+
+	}
+
+	/**
+	 * Sets whether or not the search tree of the previous turn should be reused. This is not supported with root or
+	 * tree parallelisation, since those searches do not keep a single tree between turns.
+	 * 
+	 * @param reuseTree
+	 *            Whether or not to reuse the search tree.
+	 */
+	public void setReuseTree(boolean reuseTree) {
+		if (reuseTree && (rootSearches.size > 0 || treeSearchThreads > 1))
+			throw new IllegalStateException("Reusing the search tree is not supported with root or tree parallelisation.");
+		this.reuseTree = reuseTree;
+	}
+
+	/**
+	 * Finds the node in the previous search tree that matches the provided state. This is the node that was reached
+	 * after our previous action and the actions of the other players, below which our next orders were expanded.
+	 * 
+	 * @param state
+	 *            The state we are currently searching for.
+	 * @return The matching node, or null if the previous tree does not contain the state.
+	 */
+	private TreeSearchNode<HMCTSState, PartialAction> findDescendant(HunterKillerState state) {
+		if (previousRoot == null || state.getCurrentRound() <= state.getNumberOfPlayers())
+			return null;
+
+		// Replaying the branches of the previous tree is limited, a large tree is not worth its look-up
+		replaysLeft = TREE_REUSE_MAX_REPLAYS;
+		TreeSearchNode<HMCTSState, PartialAction> descendant = findDescendant(	previousRoot,
+																				previousState.copy(),
+																				new Array<HunterKillerOrder>(),
+																				state,
+																				legalOrders.hash(state));
+
+		// The previous tree is no longer needed
+		previousRoot = null;
+		previousState = null;
+		previousOrders = null;
+
+		return descendant;
+	}
+
+	/**
+	 * Searches the children of a node for the one that leads to the observed state. Each path is simulated by applying
+	 * the orders of a player once that player's combined action is complete. For our own player, only the orders we
+	 * actually returned are followed. The search gives up once the rules have been applied
+	 * {@link HMCTSBot#TREE_REUSE_MAX_REPLAYS} times.
+	 * 
+	 * @param node
+	 *            The node whose children should be searched.
+	 * @param current
+	 *            The game state on which the orders collected so far have not been applied yet.
+	 * @param orders
+	 *            The orders collected so far for the player acting in the current state.
+	 * @param observed
+	 *            The state we are currently searching for.
+	 * @param observedHash
+	 *            The Zobrist hash of the observed state, see {@link LegalOrderCache#hash(HunterKillerState)}. It covers
+	 *            everything that determines which orders are legal, so a reused tree does not contain orders that can
+	 *            not be given.
+	 */
+	private TreeSearchNode<HMCTSState, PartialAction> findDescendant(TreeSearchNode<HMCTSState, PartialAction> node,
+			HunterKillerState current, Array<HunterKillerOrder> orders, HunterKillerState observed, long observedHash) {
+		int ourPlayer = observed.getCurrentPlayer();
+
+		for (TreeSearchNode<HMCTSState, PartialAction> child : node.getChildren()) {
+			PartialAction partialAction = child.getPayload();
+
+			// Only follow the orders we actually issued
+			if (partialAction.player == ourPlayer && !previousOrders.contains(partialAction.order, false))
+				continue;
+
+			Array<HunterKillerOrder> childOrders = new Array<HunterKillerOrder>(orders);
+			childOrders.add(partialAction.order);
+
+			// Check if the player has an order for each dimension
+			if (childOrders.size < partialAction.currentOrdering.size) {
+				TreeSearchNode<HMCTSState, PartialAction> descendant = findDescendant(child, current, childOrders, observed, observedHash);
+				if (descendant != null)
+					return descendant;
+				continue;
+			}
+
+			// Apply the combined action, skipping players that can not issue any orders
+			if (replaysLeft-- <= 0)
+				return null;
+			HunterKillerState next = current.copy();
+			HunterKillerAction action = new HunterKillerAction(next);
+			for (HunterKillerOrder order : childOrders) {
+				action.addOrder(order);
+			}
+			rulesEngine.get()
+						.handle(next, action);
+			while (!next.isDone() && next.getActivePlayer()
+											.getUnitIDs().size
+										+ next.getActivePlayer()
+												.getStructureIDs().size == 0) {
+				rulesEngine.get()
+							.handle(next, new HunterKillerAction(next));
+			}
+
+			if (next.getCurrentPlayer() == ourPlayer) {
+				// We have arrived back at our own turn, check if this is the state we observed
+				if (legalOrders.hash(next) == observedHash)
+					return child;
+			} else {
+				TreeSearchNode<HMCTSState, PartialAction> descendant = findDescendant(	child,
+																						next,
+																						new Array<HunterKillerOrder>(),
+																						observed,
+																						observedHash);
+				if (descendant != null)
+					return descendant;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a new root for the provided state, and moves the children of a node from the previous search tree under
+	 * it. The rest of the previous tree is released.
+	 * 
+	 * @param descendant
+	 *            The node from the previous search tree that matches the provided state.
+	 * @param searchState
+	 *            The state the search starts from. Its ordering is set to the one used by the reused children.
+	 */
+	private TreeSearchNode<HMCTSState, PartialAction> reroot(TreeSearchNode<HMCTSState, PartialAction> descendant,
+			HMCTSState searchState) {
+		Array<TreeSearchNode<HMCTSState, PartialAction>> children = descendant.getChildren();
+		if (children.size == 0)
+			return null;
+
+		// The children were expanded for a specific ordering of our controlled objects, so the search needs to use it
+		// as well
+		searchState.combinedAction.currentOrdering = children.first()
+																.getPayload().currentOrdering;
+
+		TreeSearchNode<HMCTSState, PartialAction> root = new TreeSearchNode<HMCTSState, PartialAction>(searchState.copy(), null);
+		for (TreeSearchNode<HMCTSState, PartialAction> child : children) {
+			child.setParent(root);
+			root.getChildren()
+				.add(child);
+		}
+		children.clear();
+
+		// The selection uses the visits of the root, the score of the root itself is never used
+		for (int i = 0; i < descendant.getVisits(); i++) {
+			root.visit(0);
+		}
+
+		System.out.println("Reusing " + root.getVisits() + " visits from the previous search.");
+		return root;
+	}
+
+	/**
+	 * Builds a search that only runs iterations, constructing a solution is left for the end. When a time budget is
+	 * set, the search runs a batch of {@link HMCTSBot#ITERATIONS_PER_BUDGET_CHECK} iterations.
+	 */
+	@SuppressWarnings("rawtypes")
+	private MCTS buildIterationSearch() {
+		builder.solution((c, node) -> null);
+		builder.iterations(timeBudget == TIME_BUDGET_NOT_SET ? MCTS_NUMBER_OF_ITERATIONS : ITERATIONS_PER_BUDGET_CHECK);
+		MCTS search = builder.build();
+
+		// Restore the builder to its default setup
+		builder.iterations(MCTS_NUMBER_OF_ITERATIONS);
+		builder.solution(solution);
+
+		return search;
+	}
+
+	/**
+	 * Executes the search that is set in the context on the provided root, until the deadline has passed. At least
+	 * one batch is always run. When no time budget is set, the search is executed once.
+	 * 
+	 * @param context
+	 *            The context containing the search, see {@link HMCTSBot#buildIterationSearch()}.
+	 * @param root
+	 *            The root of the search tree.
+	 * @param deadline
+	 *            Moment in time (see {@link System#nanoTime()}) after which no new batch should be started.
+	 * @return The number of iterations that the search went through.
+	 */
+	private int iterate(SearchContext<Object, HMCTSState, PartialAction, Object, HunterKillerAction> context,
+			TreeSearchNode<HMCTSState, PartialAction> root, long deadline) {
+		if (timeBudget == TIME_BUDGET_NOT_SET) {
+			context.startNode(root);
+			context.execute();
+			return MCTS_NUMBER_OF_ITERATIONS;
+		}
+
+		int iterations = 0;
+		do {
+			context.startNode(root);
+			context.execute();
+			iterations += ITERATIONS_PER_BUDGET_CHECK;
+		} while (System.nanoTime() < deadline);
+		return iterations;
+	}
+
+	/**
+	 * Constructs the solution from an existing search tree, without going through any more iterations.
+	 * 
+	 * @param root
+	 *            The root of the search tree.
+	 */
+	private void constructSolution(TreeSearchNode<HMCTSState, PartialAction> root) {
+		builder.iterations(0);
+		context.search(builder.build());
+		context.startNode(root);
+		context.execute();
+
+		// Restore the builder to its default setup
+		builder.iterations(MCTS_NUMBER_OF_ITERATIONS);
+	}
+
+	/**
+	 * Runs an independent search for each of the root-parallel bots (including this one) on a separate thread. The
+	 * statistics of the children of all roots are merged per order, and the order with the most visits is selected.
+	 * The action is then reconstructed from the tree that visited this order most, using the merged side information.
+	 * 
+	 * @param state
+	 *            The game state to search for.
+	 * @param controlledIDs
+	 *            The sorting to use for the controlled objects, if a static sorting is used.
+	 * @param deadline
+	 *            Moment in time (see {@link System#nanoTime()}) after which no new iterations should be started.
+	 */
+	private HunterKillerAction searchRootParallel(HunterKillerState state, IntArray controlledIDs, long deadline) {
+		Array<HMCTSBot> searches = new Array<HMCTSBot>(rootSearches);
+		searches.insert(0, this);
+
+		// Give each search its own copy of the state, and run them on the worker pool
+		List<Callable<TreeSearchNode<HMCTSState, PartialAction>>> tasks = new ArrayList<Callable<TreeSearchNode<HMCTSState, PartialAction>>>();
+		for (HMCTSBot search : searches) {
+			HunterKillerState stateCopy = state.copy();
+			tasks.add(() -> search.searchAsRoot(stateCopy, controlledIDs, deadline));
+		}
+		Array<TreeSearchNode<HMCTSState, PartialAction>> roots = new Array<TreeSearchNode<HMCTSState, PartialAction>>();
+		try {
+			for (Future<TreeSearchNode<HMCTSState, PartialAction>> future : searchPool.invokeAll(tasks)) {
+				roots.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread()
+					.interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		// Merge the visits and scores of the root's children, indexed by their order
+		HashMap<HunterKillerOrder, double[]> mergedStatistics = new HashMap<HunterKillerOrder, double[]>();
+		for (TreeSearchNode<HMCTSState, PartialAction> root : roots) {
+			for (TreeSearchNode<HMCTSState, PartialAction> child : root.getChildren()) {
+				double[] statistics = mergedStatistics.get(child.getPayload().order);
+				if (statistics == null) {
+					statistics = new double[2];
+					mergedStatistics.put(child.getPayload().order, statistics);
+				}
+				statistics[0] += child.getVisits();
+				statistics[1] += child.getScore();
+			}
+		}
+
+		// Select the most visited order, using the average score to break ties
+		HunterKillerOrder bestOrder = null;
+		double[] bestStatistics = null;
+		for (Entry<HunterKillerOrder, double[]> entry : mergedStatistics.entrySet()) {
+			double[] statistics = entry.getValue();
+			if (bestStatistics == null || statistics[0] > bestStatistics[0]
+				|| (statistics[0] == bestStatistics[0] && statistics[1] / statistics[0] > bestStatistics[1] / bestStatistics[0])) {
+				bestOrder = entry.getKey();
+				bestStatistics = statistics;
+			}
+		}
+
+		// Find the tree that visited the best order the most
+		int bestSearch = -1;
+		TreeSearchNode<HMCTSState, PartialAction> bestNode = null;
+		lastIterationCount = 0;
+		for (int i = 0; i < searches.size; i++) {
+			lastIterationCount += searches.get(i).lastIterationCount;
+			for (TreeSearchNode<HMCTSState, PartialAction> child : roots.get(i)
+																		.getChildren()) {
+				if (child.getPayload().order.equals(bestOrder) && (bestNode == null || child.getVisits() > bestNode.getVisits())) {
+					bestSearch = i;
+					bestNode = child;
+				}
+			}
+		}
+
+		// If none of the searches expanded the root, there is nothing to base our action on
+		if (bestNode == null) {
+			System.err.println("ERROR; root-parallel search did not expand any of its roots.");
+			return RandomBot.createRandomAction(state);
+		}
+
+		// Merge the side information of all searches into the one that holds the best node
+		HMCTSBot best = searches.get(bestSearch);
+		for (HMCTSBot search : searches) {
+			if (search != best)
+				best.sideInformation.merge(search.sideInformation);
+		}
+
+		// Reconstruct the action from the tree that holds the best node
+		return best.solution.solution(best.context, bestNode);
+	}
+
+	/**
+	 * Runs the search with {@link HMCTSBot#treeSearchThreads} threads that all build the same tree. Each thread uses its
+	 * own search context, and the solution is constructed once all threads have finished.
+	 * 
+	 * @param state
+	 *            The game state to search for.
+	 * @param controlledIDs
+	 *            The sorting to use for the controlled objects, if a static sorting is used.
+	 * @param deadline
+	 *            Moment in time (see {@link System#nanoTime()}) after which no new iterations should be started.
+	 */
+	@SuppressWarnings("unchecked")
+	private HunterKillerAction searchTreeParallel(HunterKillerState state, IntArray controlledIDs, long deadline) {
+		HMCTSState searchState = setupSearch(state, controlledIDs);
+		TreeSearchNode<HMCTSState, PartialAction> root = new TreeSearchNode<HMCTSState, PartialAction>(searchState.copy(), null);
+
+		// Setup a context for each thread, all starting from the shared root
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < treeSearchThreads; i++) {
+			SearchContext<Object, HMCTSState, PartialAction, Object, HunterKillerAction> threadContext = SearchContext.gameSearchSetup(	gameLogic,
+																																		buildIterationSearch(),
+																																		null,
+																																		searchState.copy(),
+																																		null);
+			tasks.add(() -> iterate(threadContext, root, deadline));
+		}
+		lastIterationCount = 0;
+		try {
+			for (Future<Integer> future : searchPool.invokeAll(tasks)) {
+				lastIterationCount += future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread()
+					.interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+
+		// Construct the solution from the shared tree, the selection applies virtual losses that need to be reverted
+		constructSolution(root);
+		revertVirtualLosses();
+
+		// Check if the search was successful
+		if (context.status() != Status.Success) {
+			System.err.println("ERROR; search-context returned with status: " + context.status());
+			// Return a random action
+			return RandomBot.createRandomAction(state);
+		}
+
+		return context.solution();
+	}
+
+	/**
+	 * Wraps a selection strategy so that it can be used by multiple threads searching the same tree. A node's children
+	 * are only inspected while holding the node's monitor, and a virtual loss is applied to the selected node until
+	 * the iteration has been backpropagated.
+	 * 
+	 * @param selection
+	 *            The selection strategy to wrap.
+	 */
+	private TreeSelection<HMCTSState, PartialAction> concurrentSelection(TreeSelection<HMCTSState, PartialAction> selection) {
+		return (context, node) -> {
+			TreeSearchNode<HMCTSState, PartialAction> next;
+			synchronized (node) {
+				next = selection.selectNextNode(context, node);
+			}
+			// Discourage other threads from following this thread down the same path
+			if (next != null && next.getPayload() != null) {
+				next.getPayload().statistics.virtualLosses.incrementAndGet();
+				virtualLosses.get()
+								.add(next.getPayload());
+			}
+			return next;
+		};
+	}
+
+	/**
+	 * Wraps an expansion strategy so that a node can only be expanded by one thread at a time.
+	 * 
+	 * @param expansion
+	 *            The expansion strategy to wrap.
+	 */
+	private TreeExpansion<HMCTSState, PartialAction> concurrentExpansion(TreeExpansion<HMCTSState, PartialAction> expansion) {
+		return (context, node, state) -> {
+			synchronized (node) {
+				return expansion.expand(context, node, state);
+			}
+		};
+	}
+
+	/**
+	 * Backpropagation that also updates the statistics in the partial actions, used when multiple threads search the
+	 * same tree or when transpositions are used. Evaluates the end state once and colors the evaluation for each node
+	 * according to its player, see {@link TreeBackPropagation.Util#EVALUATE_ONCE_AND_COLOR}.
+	 */
+	private TreeBackPropagation<HMCTSState, PartialAction> concurrentBackPropagation() {
+		return (context, evaluation, currentNode, endState) -> {
+			int rootPlayer = context.source()
+									.getPlayer();
+			double evaluate = evaluation.evaluate(context, currentNode, endState);
+
+			while (currentNode != null) {
+				// The root does not have a valid move, so we do not need to color the evaluation
+				if (currentNode.getPayload() == null) {
+					visit(currentNode, evaluate);
+					break;
+				}
+				visit(currentNode, rootPlayer == currentNode.getPayload()
+															.getPlayer() ? evaluate : -evaluate);
+				currentNode = currentNode.getParent();
+			}
+
+			revertVirtualLosses();
+		};
+	}
+
+	/**
+	 * Visits a node with an evaluation. When multiple threads search the same tree, the node's own statistics are
+	 * updated while holding its monitor. The lock-free statistics used by the selection are updated as well, if the
+	 * partial action has them.
+	 * 
+	 * @param node
+	 *            The node to visit.
+	 * @param value
+	 *            The (colored) evaluation.
+	 */
+	private void visit(TreeSearchNode<HMCTSState, PartialAction> node, double value) {
+		if (treeSearchThreads > 1) {
+			synchronized (node) {
+				node.visit(value);
+			}
+		} else {
+			node.visit(value);
+		}
+		if (node.getPayload() != null && node.getPayload().statistics != null)
+			node.getPayload().statistics.visit(value);
+	}
+
+	/**
+	 * Removes the virtual losses the current thread has applied during its current iteration.
+	 */
+	private void revertVirtualLosses() {
+		if (treeSearchThreads > 1) {
+			Array<PartialAction> actions = virtualLosses.get();
+			for (PartialAction action : actions) {
+				action.statistics.virtualLosses.decrementAndGet();
+			}
+			actions.clear();
+		}
+	}
+
+	/**
+	 * UCB-score of a node, based on the lock-free statistics of its partial action. Each thread that is currently
+	 * searching through the node counts as an additional visit with a loss of {@link HMCTSBot#VIRTUAL_LOSS}.
+	 * 
+	 * @param node
+	 *            The node to score.
+	 * @param C
+	 *            The C constant used in the UCT algorithm.
+	 */
+	private static double scoreVirtualLossUCB(TreeSearchNode<HMCTSState, PartialAction> node, double C) {
+		NodeStatistics statistics = node.getPayload().statistics;
+		int pending = statistics.virtualLosses.get();
+		double visits = statistics.visits.get() + pending;
+		if (visits == 0)
+			return Double.MAX_VALUE;
+
+		double average = (statistics.score.sum() - pending * VIRTUAL_LOSS) / visits;
+		double parentVisits = Math.max(1, node.getParent()
+												.getVisits());
+		return average + C * Math.sqrt(Math.log(parentVisits) / visits);
+	}
+
+	/**
+	 * Statistics of a node that can be updated by multiple threads without locking.
+	 * 
+	 * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+	 *
+	 */
+	private static class NodeStatistics {
+
+		/**
+		 * The amount of times the node has been visited.
+		 */
+		final AtomicInteger visits = new AtomicInteger();
+		/**
+		 * Summation of the values the node has been visited with.
+		 */
+		final DoubleAdder score = new DoubleAdder();
+		/**
+		 * The amount of threads that are currently searching through the node.
+		 */
+		final AtomicInteger virtualLosses = new AtomicInteger();
+
+		/**
+		 * Adds a visit with the provided value.
+		 */
+		void visit(double value) {
+			score.add(value);
+			visits.incrementAndGet();
+		}
+
+		/**
+		 * Removes all visits.
+		 */
+		void reset() {
+			visits.set(0);
+			score.reset();
+			virtualLosses.set(0);
+		}
+
+	}
+
+	/**
+	 * Bounded table of {@link NodeStatistics}, indexed by the Zobrist hash of the state and partial combined action
+	 * that a partial action leads to. When the table is full, the least recently used entry is removed.
+	 * 
+	 * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+	 *
+	 */
+	private static class TranspositionTable {
+
+		/**
+		 * The statistics, in order of access.
+		 */
+		private final LinkedHashMap<Long, NodeStatistics> table;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param capacity
+		 *            The maximum number of entries in the table.
+		 */
+		TranspositionTable(int capacity) {
+			table = new LinkedHashMap<Long, NodeStatistics>(capacity, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Entry<Long, NodeStatistics> eldest) {
+					return size() > capacity;
+				}
+
+			};
+		}
+
+		/**
+		 * Returns the statistics stored for the hash, creating them if there are none.
+		 */
+		synchronized NodeStatistics get(long hash) {
+			return table.computeIfAbsent(hash, key -> new NodeStatistics());
+		}
+
+		/**
+		 * Removes all entries from the table.
+		 */
+		synchronized void clear() {
+			table.clear();
+		}
+
+	}
+
+	/**
+	 * Sets whether or not the partial actions and states created during a search should be taken from an arena.
+	 * 
+	 * @param useArena
+	 *            Whether or not to use an arena.
+	 */
+	public void setUseArena(boolean useArena) {
+		this.useArena = useArena;
+		for (HMCTSBot search : rootSearches) {
+			search.setUseArena(useArena);
+		}
+	}
 
-		// Instantiate the various strategies
-		goal = roundCutoff(PLAYOUT_ROUND_CUTOFF);
-		actionCompletion = new RandomActionCompletion();
-		gameLogic = new HMCTSGameLogic(sorting);
-		sideInformation = new SideInformation();
-		playout = new HKPlayoutStrategy();
+	/**
+	 * Whether or not the arena should be used, see {@link HMCTSBot#useArena}.
+	 */
+	private boolean isArenaActive() {
+		return useArena && !reuseTree;
+	}
 
-		// Build the MCTS
-		builder = MCTS.<Object, HMCTSBot.HMCTSState, HMCTSBot.PartialAction, Object, HunterKillerAction> builder();
-		builder.expansion(TreeExpansion.Util.createMinimumTExpansion(MIN_T_VISIT_THRESHOLD_FOR_EXPANSION));
-		builder.selection(TreeSelection.Util.selectBestNode(TreeSelection.Util.scoreUCB(C), SELECTION_VISIT_MINIMUM_FOR_EVALUATION));
-		builder.evaluation(evaluate(kb));
-		builder.iterations(MCTS_NUMBER_OF_ITERATIONS);
+	/**
+	 * Returns a partial action for the provided arguments, from the arena of the current thread if it is active.
+	 */
+	private PartialAction obtainPartialAction(int player, HunterKillerOrder order, int nextDimensionIndex, IntArray currentOrdering) {
+		if (!isArenaActive())
+			return new PartialAction(player, order, nextDimensionIndex, currentOrdering);
+		return arena.get()
+					.obtainPartialAction(player, order, nextDimensionIndex, currentOrdering);
+	}
 
-		if (useSideInformation) {
-			// Set the side information into the sorting, if it can use it
-			if (sorting instanceof InformedSorting) {
-				((InformedSorting) sorting).setInformation(sideInformation);
-			}
-			builder.backPropagation(sideInformation);
-			builder.solution(sideInformation);
-			builder.playout(sideInformation);
-		} else {
-			builder.backPropagation(TreeBackPropagation.Util.EVALUATE_ONCE_AND_COLOR);
-			builder.solution(reconstructAction(actionCompletion));
-			builder.playout(playout);
-		}
+	/**
+	 * Returns a state for the provided game state, from the arena of the current thread if it is active.
+	 */
+	private HMCTSState obtainState(HunterKillerState state, ControlledObjectSortingStrategy sorting) {
+		if (!isArenaActive())
+			return new HMCTSState(state, sorting);
+		return arena.get()
+					.obtainState(state, sorting);
+	}
 
-		// Adjust our name according to some settings, this will help during testing and/or watching replays
-		this.botName = "HMCTS" + (useSideInformation ? "_i_" : "_n_") + sorting.getClass()
-																				.getSimpleName() + "_" + playoutBot.getClass()
-																													.getSimpleName();
+	/**
+	 * Returns a copy of the provided state, from the arena of the current thread if it is active.
+	 */
+	private HMCTSState obtainCopy(HMCTSState other) {
+		if (!isArenaActive())
+			return new HMCTSState(other);
+		return arena.get()
+					.obtainCopy(other);
 	}
 
-	@Override
-	public HunterKillerAction handle(HunterKillerState state) {
-		Stopwatch actionTimer = new Stopwatch();
-		actionTimer.start();
+	/**
+	 * Holds the partial actions and states that were created during a search, so that they can be reused during the
+	 * next search instead of being left to the garbage collector. Everything is released at once through
+	 * {@link SearchArena#reset()}, which should only be called when no search tree refers to its objects anymore.
+	 * 
+	 * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+	 *
+	 */
+	private class SearchArena {
 
-		// Check if we need to wait
-		waitTimeBuffer();
+		/**
+		 * All partial actions that have been created by this arena.
+		 */
+		private final Array<PartialAction> partialActions = new Array<PartialAction>();
+		/**
+		 * The number of partial actions that are in use.
+		 */
+		private int partialActionsUsed = 0;
+		/**
+		 * All states that have been created by this arena.
+		 */
+		private final Array<HMCTSState> states = new Array<HMCTSState>();
+		/**
+		 * The number of states that are in use.
+		 */
+		private int statesUsed = 0;
 
-		// Check if we want to update our knowledgebase
-		if (state.getCurrentRound() <= state.getNumberOfPlayers()) {
-			kb.update(state);
+		/**
+		 * Returns an unused partial action, see {@link PartialAction#PartialAction(int, HunterKillerOrder, int, IntArray)}.
+		 */
+		PartialAction obtainPartialAction(int player, HunterKillerOrder order, int nextDimensionIndex, IntArray currentOrdering) {
+			if (partialActionsUsed == partialActions.size) {
+				partialActions.add(new PartialAction(player, order, nextDimensionIndex, currentOrdering));
+			} else {
+				partialActions.get(partialActionsUsed)
+								.set(player, order, nextDimensionIndex, currentOrdering);
+			}
+			return partialActions.get(partialActionsUsed++);
 		}
 
-		// Check that we can even issue any orders
-		if (state.getActivePlayer()
-					.getUnitIDs().size == 0) {
-			boolean canDoSomething = false;
-			for (Structure structure : state.getActivePlayer()
-											.getStructures(state.getMap())) {
-				if (structure.canSpawnAUnit(state))
-					canDoSomething = true;
+		/**
+		 * Returns an unused state, see {@link HMCTSState#HMCTSState(HunterKillerState, ControlledObjectSortingStrategy)}.
+		 */
+		HMCTSState obtainState(HunterKillerState state, ControlledObjectSortingStrategy sorting) {
+			if (statesUsed == states.size) {
+				states.add(new HMCTSState(state, sorting));
+			} else {
+				states.get(statesUsed)
+						.set(state, sorting);
 			}
-			if (!canDoSomething)
-				return state.createNullMove();
+			return states.get(statesUsed++);
 		}
 
-		System.out.println(this.botName);
-		System.out.println("Starting an MCTS-search in round " + state.getCurrentRound());
-
-		// Set the static sorting, if applicable
-		if (sorting instanceof StaticSorting) {
-			Player player = state.getActivePlayer();
-			IntArray controlledIDs = new IntArray(player.getUnitIDs());
-			controlledIDs.addAll(player.getStructureIDs());
-			controlledIDs.shuffle();
-			((StaticSorting) sorting).setStaticSorting(controlledIDs);
+		/**
+		 * Returns an unused state that is a copy of the provided state.
+		 */
+		HMCTSState obtainCopy(HMCTSState other) {
+			if (statesUsed == states.size) {
+				states.add(new HMCTSState(other));
+			} else {
+				states.get(statesUsed)
+						.set(other);
+			}
+			return states.get(statesUsed++);
 		}
 
-		// We are going to use a special state as root for the search, so that we can keep track of all selected
-		// orders
-		HMCTSState searchState = new HMCTSState(state.copy(), gameLogic.sorting);
+		/**
+		 * Marks all partial actions and states as unused.
+		 */
+		void reset() {
+			partialActionsUsed = 0;
+			statesUsed = 0;
+		}
 
-		// Reset the side information before searching
-		sideInformation.resetInformation();
+	}
 
-		// Setup a search with the search-state as source
-		val context = SearchContext.gameSearchSetup(gameLogic, builder.build(), null, searchState, null);
+	/**
+	 * Creates a partial action for an order in the provided state. If transpositions are used, the action shares its
+	 * statistics with other actions leading to the same state and partial combined action.
+	 * 
+	 * @param state
+	 *            The state in which the order is given.
+	 * @param order
+	 *            The order for the object.
+	 * @param nextDimension
+	 *            The dimension the order is for.
+	 */
+	private PartialAction createPartialAction(HMCTSState state, HunterKillerOrder order, int nextDimension) {
+		return createPartialAction(state.state.getCurrentPlayer(), state.combinedAction.currentOrdering, state.hashMethod(), order,
+									nextDimension);
+	}
 
-		// Search for an action
-		context.execute();
+	/**
+	 * Creates a partial action for an order, see {@link HMCTSBot#createPartialAction(HMCTSState, HunterKillerOrder, int)}.
+	 * 
+	 * @param player
+	 *            The ID of the player that gives the order.
+	 * @param currentOrdering
+	 *            The ordering of the combined action the order is added to.
+	 * @param stateHash
+	 *            The hash of the state in which the order is given, see {@link HMCTSState#hashMethod()}.
+	 * @param order
+	 *            The order for the object.
+	 * @param nextDimension
+	 *            The dimension the order is for.
+	 */
+	private PartialAction createPartialAction(int player, IntArray currentOrdering, long stateHash, HunterKillerOrder order,
+			int nextDimension) {
+		// Provide the partial action with a link to the next dimension that should be expanded
+		PartialAction action = obtainPartialAction(player, order, nextDimension + 1, currentOrdering);
+		action.hash = stateHash ^ ZobristHash.of(order);
+		if (transpositions != null)
+			action.statistics = transpositions.get(action.hash);
+		return action;
+	}
 
-		// Check if the search was successful
-		if (context.status() != Status.Success) {
-			System.err.println("ERROR; search-context returned with status: " + context.status());
-			// Return a random action
-			return RandomBot.createRandomAction(state);
+	/**
+	 * Prepares and runs this bot's search as one of the trees in a root-parallel search.
+	 * {@link HMCTSBot#searchRootParallel(HunterKillerState, IntArray, long)}
+	 * 
+	 * @return The root of the search tree.
+	 */
+	private TreeSearchNode<HMCTSState, PartialAction> searchAsRoot(HunterKillerState state, IntArray controlledIDs, long deadline) {
+		// Each search maintains its own knowledgebase
+		if (state.getCurrentRound() <= state.getNumberOfPlayers()) {
+			kb.update(state);
 		}
 
-		// Get the solution of the search
-		HunterKillerAction action = context.solution();
-
-		long time = actionTimer.end();
-		System.out.println("MCTS returned with " + action.getOrders().size + " orders.");
-		System.out.println("My action calculation time was " + TimeUnit.MILLISECONDS.convert(time, TimeUnit.NANOSECONDS) + " ms");
-		System.out.println("");
-
-		return action;
+		return growTree(setupSearch(state, controlledIDs), null, deadline);
 	}
 
 	/**
@@ -294,7 +1613,7 @@ public class HMCTSBot
 	 * @author Anton Valkenberg (anton.valkenberg@gmail.com)
 	 *
 	 */
-	@EqualsAndHashCode(callSuper = false)
+	@EqualsAndHashCode(callSuper = false, exclude = "playoutEvaluation")
 	private class HMCTSState
 			extends State {
 
@@ -306,6 +1625,18 @@ public class HMCTSBot
 		 * Contains orders for this state's active player.
 		 */
 		public CombinedAction combinedAction;
+		/**
+		 * Average evaluation of the playouts that ended in this state, only set when leaf parallelisation is used.
+		 */
+		public double playoutEvaluation = Double.NaN;
+		/**
+		 * Zobrist hash of the game state, see {@link LegalOrderCache#hash(HunterKillerState)}. Copies for the next
+		 * dimension share the hash, since the game state only changes once a combined action is complete. The hash is
+		 * then calculated again over all units, structures and doors, because the rules also tick down cooldowns, remove
+		 * units, spawn units and change control, which can not be followed from the orders alone. This costs one pass
+		 * over the objects for each application of the rules, which itself goes over all of them.
+		 */
+		public long stateHash;
 
 		/**
 		 * Constructor.
@@ -319,6 +1650,18 @@ public class HMCTSBot
 		public HMCTSState(HunterKillerState state, ControlledObjectSortingStrategy sorting) {
 			this.state = state;
 			this.combinedAction = new CombinedAction(state.getCurrentPlayer(), sorting.sort(state));
+			this.stateHash = legalOrders.hash(state);
+		}
+
+		/**
+		 * Re-initialises this state as if it was constructed through
+		 * {@link HMCTSState#HMCTSState(HunterKillerState, ControlledObjectSortingStrategy)}, reusing its combined action.
+		 */
+		public void set(HunterKillerState state, ControlledObjectSortingStrategy sorting) {
+			this.state = state;
+			this.combinedAction.set(state.getCurrentPlayer(), sorting.sort(state));
+			this.stateHash = legalOrders.hash(state);
+			this.playoutEvaluation = Double.NaN;
 		}
 
 		/**
@@ -330,17 +1673,34 @@ public class HMCTSBot
 		public HMCTSState(HMCTSState other) {
 			this.state = other.state.copy();
 			this.combinedAction = other.combinedAction.copy();
+			this.stateHash = other.stateHash;
+		}
+
+		/**
+		 * Re-initialises this state as a copy of another state, reusing its combined action.
+		 * 
+		 * @param other
+		 *            State to copy.
+		 */
+		public void set(HMCTSState other) {
+			this.state = other.state.copy();
+			this.combinedAction.set(other.combinedAction);
+			this.stateHash = other.stateHash;
+			this.playoutEvaluation = Double.NaN;
 		}
 
+		/**
+		 * Returns the Zobrist hash of the game state combined with the orders assigned so far.
+		 */
 		@Override
 		public long hashMethod() {
-			return hashCode();
+			return stateHash ^ combinedAction.orderHash;
 		}
 
 		@SuppressWarnings("unchecked")
 		@Override
 		public HMCTSState copy() {
-			return new HMCTSState(this);
+			return obtainCopy(this);
 		}
 
 		@Override
@@ -381,9 +1741,14 @@ public class HMCTSBot
 		public int nextDimension = -1;
 		/**
 		 * Ordered array containing the IDs of the units for which a partial action should be created.
-		 * Set by the last partial action we applied.
+		 * Set by the last partial action we applied. Shared with other states and partial actions, so it should never be
+		 * modified.
 		 */
 		public IntArray currentOrdering = null;
+		/**
+		 * Zobrist hash of the orders that have been assigned, updated incrementally as orders are added.
+		 */
+		public long orderHash = 0;
 
 		/**
 		 * Constructor.
@@ -412,7 +1777,38 @@ public class HMCTSBot
 			this.dimensions = other.dimensions;
 			this.orders = new Array<HunterKillerOrder>(other.orders);
 			this.nextDimension = other.nextDimension;
-			this.currentOrdering = new IntArray(other.currentOrdering);
+			// The ordering is never modified, so it can be shared
+			this.currentOrdering = other.currentOrdering;
+			this.orderHash = other.orderHash;
+		}
+
+		/**
+		 * Re-initialises this action as if it was constructed through {@link CombinedAction#CombinedAction(int, IntArray)},
+		 * reusing its collection of orders.
+		 */
+		public void set(int player, IntArray currentOrdering) {
+			this.player = player;
+			this.dimensions = currentOrdering.size;
+			this.orders.clear();
+			this.nextDimension = 0;
+			this.currentOrdering = currentOrdering;
+			this.orderHash = 0;
+		}
+
+		/**
+		 * Re-initialises this action as a copy of another action, reusing its collection of orders.
+		 * 
+		 * @param other
+		 *            The action to copy.
+		 */
+		public void set(CombinedAction other) {
+			this.player = other.player;
+			this.dimensions = other.dimensions;
+			this.orders.clear();
+			this.orders.addAll(other.orders);
+			this.nextDimension = other.nextDimension;
+			this.currentOrdering = other.currentOrdering;
+			this.orderHash = other.orderHash;
 		}
 
 		/**
@@ -437,6 +1833,7 @@ public class HMCTSBot
 		 */
 		public void pushOrder(PartialAction action) {
 			orders.add(action.order);
+			orderHash ^= ZobristHash.of(action.order);
 		}
 
 		/**
@@ -477,8 +1874,26 @@ public class HMCTSBot
 		public int nextDimensionIndex;
 		/**
 		 * Ordered array containing the IDs of the objects for which a partial action should be created.
+		 * Shared with other states and partial actions, so it should never be modified.
 		 */
 		public IntArray currentOrdering;
+		/**
+		 * Statistics of the node holding this action, only used when multiple threads search the same tree or when
+		 * transpositions are used.
+		 */
+		public NodeStatistics statistics;
+		/**
+		 * Zobrist hash of the state and partial combined action this action leads to.
+		 */
+		public long hash;
+		/**
+		 * The orders of this action's expansion that have not become children yet, only used by progressive widening.
+		 */
+		public PendingChildren pending;
+		/**
+		 * Statistics created for this action itself, as opposed to statistics shared through the transposition table.
+		 */
+		private NodeStatistics ownStatistics;
 
 		/**
 		 * Constructor.
@@ -493,10 +1908,29 @@ public class HMCTSBot
 		 *            Ordered array containing the IDs of the units for which a partial action should be created.
 		 */
 		public PartialAction(int player, HunterKillerOrder order, int nextDimensionIndex, IntArray currentOrdering) {
+			set(player, order, nextDimensionIndex, currentOrdering);
+		}
+
+		/**
+		 * Re-initialises this action, see {@link PartialAction#PartialAction(int, HunterKillerOrder, int, IntArray)}.
+		 */
+		public void set(int player, HunterKillerOrder order, int nextDimensionIndex, IntArray currentOrdering) {
 			this.player = player;
 			this.order = order;
 			this.nextDimensionIndex = nextDimensionIndex;
-			this.currentOrdering = new IntArray(currentOrdering);
+			// The ordering is never modified, so it can be shared with the other partial actions of this expansion
+			this.currentOrdering = currentOrdering;
+			this.hash = 0;
+			this.statistics = null;
+			this.pending = null;
+			if (treeSearchThreads > 1) {
+				// Statistics of our own are never shared, so they can be reset when this action is reused
+				if (ownStatistics == null)
+					ownStatistics = new NodeStatistics();
+				else
+					ownStatistics.reset();
+				this.statistics = ownStatistics;
+			}
 		}
 
 		@Override
@@ -552,10 +1986,10 @@ public class HMCTSBot
 					}
 
 					// Apply the created action to the hkState, so that it moves forward to the next player.
-					rulesEngine.handle(state.state, hkAction);
+					rulesEngine.get().handle(state.state, hkAction);
 
 					// Then for the next player, create a sorted unexpanded dimension set (clean HMCTSState)
-					state = new HMCTSState(state.state, sorting);
+					state = obtainState(state.state, sorting);
 
 					// Check if we have advanced into an empty Combined Action (no legal orders available)
 					// Keep skipping and applying the rules until we get to a non-empty combined action.
@@ -578,7 +2012,8 @@ public class HMCTSBot
 			Map map = state.state.getMap();
 
 			// Post-process the ordering
-			sorting.postProcess(state.combinedAction.currentOrdering, state.combinedAction.nextDimension);
+			state.combinedAction.currentOrdering = sorting.postProcess(state.combinedAction.currentOrdering,
+																		state.combinedAction.nextDimension);
 
 			// The next dimension to expand can be found in the combined action
 			int nextDimension = state.combinedAction.nextDimension;
@@ -590,20 +2025,11 @@ public class HMCTSBot
 			if (object instanceof Unit) {
 				Unit nextUnit = (Unit) object;
 
-				// Generate all legal orders for this unit
-				List<UnitOrder> orders = MoveGenerator.getAllLegalOrders(state.state, nextUnit);
-
-				// Prune some orders we do not want to investigate
-				BaseBot.filterFriendlyFire(orders, nextUnit, map);
+				// Get all legal orders for this unit, without the orders we do not want to investigate
+				List<UnitOrder> orders = legalOrders.getLegalOrders(state.state, state.stateHash, nextUnit);
 
 				// Fill a collection of partial actions that encapsulate the possible unit-orders
-				Array<PartialAction> partialActions = new Array<PartialAction>(false, orders.size());
-				for (UnitOrder order : orders) {
-					// Provide the partial actions with a link to the next dimension that should be expanded
-					partialActions.add(new PartialAction(state.state.getCurrentPlayer(), order, nextDimension + 1,
-															state.combinedAction.currentOrdering));
-				}
-				return partialActions;
+				return createPartialActions(state, orders, nextDimension);
 
 			} else if (object instanceof Structure) {
 				Structure nextStructure = (Structure) object;
@@ -612,19 +2038,41 @@ public class HMCTSBot
 				List<StructureOrder> orders = MoveGenerator.getAllLegalOrders(state.state, nextStructure);
 
 				// Fill a collection of partial actions that encapsulate the possible structure-orders
-				Array<PartialAction> partialActions = new Array<PartialAction>(false, orders.size());
-				for (StructureOrder order : orders) {
-					// Provide the partial actions with a link to the next dimension that should be expanded
-					partialActions.add(new PartialAction(state.state.getCurrentPlayer(), order, nextDimension + 1,
-															state.combinedAction.currentOrdering));
-				}
-				return partialActions;
+				return createPartialActions(state, orders, nextDimension);
 			} else {
 				throw new RuntimeException("Unknown type for expansion: " + object.getClass()
 																					.getName());
 			}
 		}
 
+		/**
+		 * Creates the partial actions for the orders of a single dimension. With progressive widening only the most
+		 * promising orders become partial actions now, the others are kept pending until the node is widened.
+		 * 
+		 * @param state
+		 *            The state that is being expanded.
+		 * @param orders
+		 *            The legal orders for the next dimension.
+		 * @param nextDimension
+		 *            The dimension that is being expanded.
+		 */
+		private Array<PartialAction> createPartialActions(HMCTSState state, List<? extends HunterKillerOrder> orders, int nextDimension) {
+			if (!progressiveWidening) {
+				Array<PartialAction> partialActions = new Array<PartialAction>(false, orders.size());
+				for (HunterKillerOrder order : orders) {
+					partialActions.add(createPartialAction(state, order, nextDimension));
+				}
+				return partialActions;
+			}
+
+			PendingChildren pending = new PendingChildren(state, nextDimension, rankOrders(orders));
+			Array<PartialAction> partialActions = new Array<PartialAction>(false, PROGRESSIVE_WIDENING_INITIAL_CHILDREN);
+			while (partialActions.size < PROGRESSIVE_WIDENING_INITIAL_CHILDREN && pending.hasNext()) {
+				partialActions.add(pending.next());
+			}
+			return partialActions;
+		}
+
 		@Override
 		public double[] scores(HMCTSState current) {
 			IntArray scores = current.state.getScores();
@@ -682,6 +2130,82 @@ public class HMCTSBot
 		};
 	}
 
+	/**
+	 * Wraps an evaluation so that it uses the averaged evaluation stored by a leaf-parallel playout, if the state has
+	 * one. See {@link HMCTSBot#runPlayouts(SearchContext, HMCTSState)}.
+	 * 
+	 * @param evaluation
+	 *            The evaluation to use if a state has no averaged evaluation.
+	 */
+	public static StateEvaluation<HMCTSState, PartialAction, TreeSearchNode<HMCTSState, PartialAction>> averagedEvaluation(
+			StateEvaluation<HMCTSState, PartialAction, TreeSearchNode<HMCTSState, PartialAction>> evaluation) {
+		return (context, node, state) -> {
+			if (!Double.isNaN(state.playoutEvaluation))
+				return state.playoutEvaluation;
+			return evaluation.evaluate(context, node, state);
+		};
+	}
+
+	/**
+	 * Plays out a state until the goal is reached. If leaf parallelisation is used, {@link HMCTSBot#playoutsPerLeaf}
+	 * playouts are run from copies of the state at the same time, and their average evaluation is stored in the
+	 * provided state.
+	 * 
+	 * @param context
+	 *            The context of the search.
+	 * @param state
+	 *            The state to play out, on which the action for the leaf has already been applied.
+	 */
+	private void runPlayouts(SearchContext<Object, HMCTSState, PartialAction, Object, ?> context, HMCTSState state) {
+		if (playoutsPerLeaf <= 1) {
+			playout(context, state);
+			return;
+		}
+
+		// Start the additional playouts on copies of the state, the current thread plays out the original
+		List<Future<Double>> playouts = new ArrayList<Future<Double>>();
+		for (int i = 1; i < playoutsPerLeaf; i++) {
+			HMCTSState copy = state.copy();
+			playouts.add(searchPool.submit(() -> {
+				playout(context, copy);
+				return evaluation.evaluate(context, null, copy);
+			}));
+		}
+		playout(context, state);
+		double total = evaluation.evaluate(context, null, state);
+
+		// Wait for the other playouts, and average the evaluations
+		try {
+			for (Future<Double> playout : playouts) {
+				total += playout.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread()
+					.interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		state.playoutEvaluation = total / playoutsPerLeaf;
+	}
+
+	/**
+	 * Calls the playout bot to continuously play actions until the goal is reached.
+	 * 
+	 * @param context
+	 *            The context of the search.
+	 * @param state
+	 *            The state to play out.
+	 */
+	private void playout(SearchContext<Object, HMCTSState, PartialAction, Object, ?> context, HMCTSState state) {
+		while (!goal.done(context, state)) {
+			HunterKillerAction botAction = playoutBot.get()
+														.handle(state.state);
+			rulesEngine.get()
+						.handle(state.state, botAction);
+		}
+	}
+
 	/**
 	 * Constructs a HunterKillerAction containing the orders in the best nodes according to our selection strategy,
 	 * starting from the final node as selected by the final-selection strategy.
@@ -764,13 +2288,10 @@ public class HMCTSBot
 			}
 
 			// Apply the created action on the HunterKillerState
-			rulesEngine.handle(state.state, action);
+			rulesEngine.get().handle(state.state, action);
 
-			// Call the playout bot to continuously play actions until the goal is reached.
-			while (!goal.done(context, state)) {
-				HunterKillerAction botAction = playoutBot.handle(state.state);
-				rulesEngine.handle(state.state, botAction);
-			}
+			// Play out the state, possibly multiple times in parallel
+			runPlayouts(context, state);
 
 			return state;
 		}
@@ -793,16 +2314,16 @@ public class HMCTSBot
 		 */
 		IntMap<HashMap<HunterKillerOrder, OrderStatistics>> sideInformation;
 		/**
-		 * Collection of orders that were filled by the action completion during a playout.
+		 * Collection of orders that were filled by the action completion during a playout, kept per thread.
 		 */
-		Array<HunterKillerOrder> playoutFilledOrders;
+		ThreadLocal<Array<HunterKillerOrder>> playoutFilledOrders;
 
 		/**
 		 * Constructor.
 		 */
 		public SideInformation() {
 			this.sideInformation = new IntMap<HashMap<HunterKillerOrder, OrderStatistics>>();
-			this.playoutFilledOrders = null;
+			this.playoutFilledOrders = new ThreadLocal<Array<HunterKillerOrder>>();
 		}
 
 		/**
@@ -815,7 +2336,7 @@ public class HMCTSBot
 		 * @param evaluation
 		 *            The evaluation returned from the playout.
 		 */
-		public void updateInformation(int objectID, HunterKillerOrder order, double evaluation) {
+		public synchronized void updateInformation(int objectID, HunterKillerOrder order, double evaluation) {
 			HashMap<HunterKillerOrder, OrderStatistics> objectOrderMap = sideInformation.get(objectID);
 
 			// Check if the side information contains an entry for this object
@@ -842,7 +2363,7 @@ public class HMCTSBot
 		 * @param objectID
 		 *            The unique identifier of the game object.
 		 */
-		public HunterKillerOrder getBestAction(int objectID) {
+		public synchronized HunterKillerOrder getBestAction(int objectID) {
 			// Check if we have any information on this object
 			if (!sideInformation.containsKey(objectID))
 				return null;
@@ -871,19 +2392,54 @@ public class HMCTSBot
 		}
 
 		/**
-		 * Returns the information that is stored for the specified object ID.
+		 * Returns a copy of the information that is stored for the specified object ID, or null if there is none.
 		 * 
 		 * @param objectID
 		 *            The ID of the object to get the information for.
 		 */
-		public HashMap<HunterKillerOrder, OrderStatistics> getInformation(int objectID) {
-			return sideInformation.get(objectID);
+		public synchronized HashMap<HunterKillerOrder, OrderStatistics> getInformation(int objectID) {
+			HashMap<HunterKillerOrder, OrderStatistics> objectOrderMap = sideInformation.get(objectID);
+			if (objectOrderMap == null)
+				return null;
+			return new HashMap<HunterKillerOrder, OrderStatistics>(objectOrderMap);
+		}
+
+		/**
+		 * Adds the statistics stored in another instance of side information to the statistics stored in this one.
+		 * 
+		 * @param other
+		 *            The side information to merge into this one.
+		 */
+		public synchronized void merge(SideInformation other) {
+			for (IntMap.Entry<HashMap<HunterKillerOrder, OrderStatistics>> objectEntry : other.sideInformation.entries()) {
+				for (Entry<HunterKillerOrder, OrderStatistics> orderEntry : objectEntry.value.entrySet()) {
+					OrderStatistics otherStats = orderEntry.getValue();
+					HashMap<HunterKillerOrder, OrderStatistics> objectOrderMap = sideInformation.get(objectEntry.key);
+
+					// Check if the side information contains an entry for this object
+					if (objectOrderMap == null) {
+						objectOrderMap = new HashMap<HunterKillerOrder, OrderStatistics>();
+						sideInformation.put(objectEntry.key, objectOrderMap);
+					}
+
+					// Check if the object's HashMap contains an entry for this order
+					OrderStatistics stats = objectOrderMap.get(orderEntry.getKey());
+					if (stats == null) {
+						stats = new OrderStatistics(otherStats.value);
+						stats.visits = otherStats.visits;
+						objectOrderMap.put(orderEntry.getKey(), stats);
+					} else {
+						stats.visits += otherStats.visits;
+						stats.value += otherStats.value;
+					}
+				}
+			}
 		}
 
 		/**
 		 * Clears the stored information.
 		 */
-		public void resetInformation() {
+		public synchronized void resetInformation() {
 			sideInformation.clear();
 		}
 
@@ -965,18 +2521,15 @@ public class HMCTSBot
 				// Check if we are currently in a state where we want to save the orders
 				// I.E. this playout happens in the same round and for the same player as the search started for
 				if (playoutRound == rootRound && playoutPlayerID == rootPlayerID) {
-					playoutFilledOrders = filledOrders;
+					playoutFilledOrders.set(filledOrders);
 				}
 			}
 
 			// Apply the created action on the HunterKillerState
-			rulesEngine.handle(state.state, action);
+			rulesEngine.get().handle(state.state, action);
 
-			// Call the playout bot to continuously play actions until the goal is reached.
-			while (!goal.done(context, state)) {
-				HunterKillerAction botAction = playoutBot.handle(state.state);
-				rulesEngine.handle(state.state, botAction);
-			}
+			// Play out the state, possibly multiple times in parallel
+			runPlayouts(context, state);
 
 			return state;
 		}
@@ -1000,16 +2553,17 @@ public class HMCTSBot
 															.getPlayer();
 
 			// Check if there are any orders filled during the playout
-			if (playoutFilledOrders != null) {
+			Array<HunterKillerOrder> filledOrders = playoutFilledOrders.get();
+			if (filledOrders != null) {
 				// Update the information on these orders according to the evaluation
-				for (HunterKillerOrder order : playoutFilledOrders) {
+				for (HunterKillerOrder order : filledOrders) {
 					// We do not have to color this evaluation, because filled orders are only stored for the root
 					// player, so these orders should all have the root-evaluation
 					updateInformation(order.objectID, order, evaluate);
 				}
 
 				// We are done with this collection, reset it
-				playoutFilledOrders = null;
+				playoutFilledOrders.remove();
 			}
 
 			// We keep moving if the node has a valid parent, aka we do not backpropagate to the root node as it
@@ -1018,7 +2572,7 @@ public class HMCTSBot
 
 				// Stop at root
 				if (currentNode.getPayload() == null) {
-					currentNode.visit(evaluate);
+					visit(currentNode, evaluate);
 					break;
 				}
 
@@ -1034,12 +2588,14 @@ public class HMCTSBot
 				}
 
 				// Visit the target with a colored evaluation
-				currentNode.visit(isRootPlayer ? evaluate : -evaluate);
+				visit(currentNode, isRootPlayer ? evaluate : -evaluate);
 
 				// Reduce the depth and move to parent
 				currentDepth--;
 				currentNode = currentNode.getParent();
 			}
+
+			revertVirtualLosses();
 		}
 
 		@SuppressWarnings({ "rawtypes", "unchecked" })
@@ -1149,6 +2705,28 @@ public class HMCTSBot
 	public static class RandomActionCompletion
 			implements ActionCompletionStrategy {
 
+		/**
+		 * Cache to get the legal orders of units from, or null if they should always be generated.
+		 */
+		private LegalOrderCache legalOrders;
+
+		/**
+		 * Constructor.
+		 */
+		public RandomActionCompletion() {
+			this(null);
+		}
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param legalOrders
+		 *            Cache to get the legal orders of units from, or null if they should always be generated.
+		 */
+		public RandomActionCompletion(LegalOrderCache legalOrders) {
+			this.legalOrders = legalOrders;
+		}
+
 		@Override
 		public Array<HunterKillerOrder> fill(HunterKillerState state, IntArray ordering) {
 			return fill(state, ordering, 0);
@@ -1157,9 +2735,11 @@ public class HMCTSBot
 		@Override
 		public Array<HunterKillerOrder> fill(HunterKillerState state, IntArray ordering, int startIndex) {
 			Array<HunterKillerOrder> orders = new Array<HunterKillerOrder>();
+			// All objects are in the same state, so its hash only needs to be calculated once
+			long stateHash = legalOrders != null && startIndex < ordering.size ? legalOrders.hash(state) : 0;
 			// Create a random order for the remaining IDs in the ordering
 			for (int i = startIndex; i < ordering.size; i++) {
-				HunterKillerOrder order = fill(state, ordering.get(i));
+				HunterKillerOrder order = fill(state, stateHash, ordering.get(i));
 				if (order != null)
 					orders.add(order);
 			}
@@ -1168,10 +2748,21 @@ public class HMCTSBot
 
 		@Override
 		public HunterKillerOrder fill(HunterKillerState state, int objectID) {
+			return fill(state, legalOrders != null ? legalOrders.hash(state) : 0, objectID);
+		}
+
+		/**
+		 * Returns a random order for the object, see {@link RandomActionCompletion#fill(HunterKillerState, int)}.
+		 * 
+		 * @param stateHash
+		 *            The Zobrist hash of the state, only used when a cache is set.
+		 */
+		private HunterKillerOrder fill(HunterKillerState state, long stateHash, int objectID) {
 			Map map = state.getMap();
 			GameObject object = map.getObject(objectID);
 			if (object instanceof Unit) {
-				UnitOrder order = BaseBot.getRandomOrder(state, (Unit) object);
+				UnitOrder order = legalOrders != null ? BaseBot.getRandomOrder(legalOrders.getLegalOrders(state, stateHash, (Unit) object))
+						: BaseBot.getRandomOrder(state, (Unit) object);
 				if (order != null)
 					return order;
 			} else if (object instanceof Structure) {
@@ -1,13 +1,23 @@
 package net.codepoke.ai.challenges.hunterkiller.bots;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.val;
 import net.codepoke.ai.challenge.hunterkiller.HunterKillerAction;
 import net.codepoke.ai.challenge.hunterkiller.HunterKillerRules;
@@ -22,6 +32,7 @@ import net.codepoke.ai.challenge.hunterkiller.orders.StructureOrder;
 import net.codepoke.ai.challenge.hunterkiller.orders.UnitOrder;
 import net.codepoke.ai.challenges.hunterkiller.InfluenceMaps;
 import net.codepoke.ai.challenges.hunterkiller.InfluenceMaps.KnowledgeBase;
+import net.codepoke.ai.challenges.hunterkiller.MapTerrain;
 import net.codepoke.ai.challenges.hunterkiller.bots.HMCTSBot.RandomActionCompletion;
 import net.codepoke.ai.challenges.hunterkiller.bots.LSIBot.CombinedAction;
 import net.codepoke.ai.challenges.hunterkiller.bots.LSIBot.LSIState;
@@ -72,9 +83,9 @@ public class LSIBot
 	public String botName = "LSIBot";
 
 	/**
-	 * Rules of HunterKiller.
+	 * Rules of HunterKiller, each thread uses its own instance.
 	 */
-	HunterKillerRules rulesEngine = new HunterKillerRules();
+	ThreadLocal<HunterKillerRules> rulesEngine = ThreadLocal.withInitial(HunterKillerRules::new);
 
 	/**
 	 * The knowledgebase we are using.
@@ -98,9 +109,22 @@ public class LSIBot
 	 */
 	private RandomActionCompletion randomCompletion;
 	/**
-	 * Bot that can be called to simulate actions during a LSI-playout.
+	 * Cache of the legal orders of units, shared by the generation of actions and the action completion during a
+	 * search.
 	 */
-	private BaseBot<HunterKillerState, HunterKillerAction> playoutBot;
+	private LegalOrderCache legalOrders = new LegalOrderCache();
+	/**
+	 * Bot that can be called to simulate actions during a LSI-playout, each thread uses its own instance.
+	 */
+	private ThreadLocal<BaseBot<HunterKillerState, HunterKillerAction>> playoutBot;
+	/**
+	 * Pool of threads on which the simulations are run, null if they are run on the calling thread.
+	 */
+	private ExecutorService simulationPool;
+	/**
+	 * The number of threads in the simulation pool, 1 if simulations are run on the calling thread.
+	 */
+	private int simulationThreads = 1;
 	/**
 	 * Number of rounds after which a playout is cut off.
 	 */
@@ -124,10 +148,78 @@ public class LSIBot
 	 */
 	private static final double SAMPLES_EVALUATION_ADJUSTMENT_FACTOR = .5;
 
+	/**
+	 * Value indicating that no time budget is set, the search will then use a fixed number of simulations.
+	 */
+	public static final int TIME_BUDGET_NOT_SET = -1;
+	/**
+	 * Number of milliseconds that is subtracted from the time budget, to leave time for constructing the solution.
+	 */
+	private static final int TIME_BUDGET_SAFETY_MARGIN_MS = 25;
+	/**
+	 * Number of milliseconds the search is allowed to use each turn, or {@link LSIBot#TIME_BUDGET_NOT_SET}.
+	 */
+	private int timeBudget = TIME_BUDGET_NOT_SET;
+	/**
+	 * Moment in time (see {@link System#nanoTime()}) at which the search for the current turn should be done.
+	 */
+	private long searchDeadline = Long.MAX_VALUE;
+	/**
+	 * Moment in time (see {@link System#nanoTime()}) after which no new simulation should be started in the current
+	 * step of the search.
+	 */
+	private volatile long stepDeadline = Long.MAX_VALUE;
+	/**
+	 * The measured number of nanoseconds a single simulation of the generation costs, or zero if it has not been
+	 * measured yet.
+	 */
+	private double nanosPerSimulation = 0;
+	/**
+	 * The measured cost of a simulation of the evaluation, relative to the cost of a simulation of the generation in
+	 * the same turn. A generation simulation also extends its partial action into a combined action, so the two differ.
+	 */
+	private double evaluationCostRatio = 1;
+
+	/**
+	 * Whether or not all actions in a round of Sequential Halving are simulated with the same random numbers. The n-th
+	 * simulation of each action then starts from the same seed, so that differences in value are caused by the actions
+	 * rather than by the randomness of the playouts. Only randomness drawn through {@link BaseBot#getRandom()} is
+	 * shared.
+	 */
+	@Getter
+	@Setter
+	private boolean commonRandomNumbers = false;
+	/**
+	 * Increment between the seeds of consecutive simulations when using common random numbers.
+	 */
+	private static final long COMMON_RANDOM_NUMBERS_SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+	/**
+	 * Random number generator for each thread that is only used by simulations with common random numbers. It is
+	 * reseeded for every simulation, so the regular generator of the thread is left alone.
+	 */
+	private final ThreadLocal<Random> commonRandom = ThreadLocal.withInitial(Random::new);
+	/**
+	 * Whether or not actions are dropped from a round of Sequential Halving once they can no longer survive the cut.
+	 */
+	@Getter
+	@Setter
+	private boolean earlyElimination = false;
+	/**
+	 * Number of batches a round of Sequential Halving is divided into when using early elimination. After each batch,
+	 * the actions that cannot survive the cut are dropped.
+	 */
+	private static final int EARLY_ELIMINATION_BATCHES = 4;
+	/**
+	 * Number of standard errors used for the confidence bounds of early elimination.
+	 */
+	private static final double EARLY_ELIMINATION_CONFIDENCE = 2.0;
+
 	/** These variables are for keeping track of the number of simulations LSI uses for each step. */
 	private int samplesGeneration = SAMPLES_FOR_GENERATION;
 	private int samplesEvaluation = SAMPLES_FOR_EVALUATION;
+	@Getter
 	private int simulationsGeneration = 0;
+	@Getter
 	private int simulationsEvaluation = 0;
 
 	/** Transforms from a combined-action to the solution. */
@@ -195,11 +287,8 @@ public class LSIBot
 		if (object instanceof Unit) {
 			Unit nextUnit = (Unit) object;
 
-			// Generate all legal orders for this unit
-			List<UnitOrder> orders = MoveGenerator.getAllLegalOrders(state.state, nextUnit);
-
-			// Prune some orders we do not want to investigate
-			BaseBot.filterFriendlyFire(orders, nextUnit, map);
+			// Get all legal orders for this unit, without the orders we do not want to investigate
+			List<UnitOrder> orders = legalOrders.getLegalOrders(state.state, state.getStateHash(), nextUnit);
 
 			// Fill a collection of partial actions that encapsulate the possible unit-orders
 			Array<PartialAction> partialActions = new Array<PartialAction>(false, orders.size());
@@ -237,37 +326,89 @@ public class LSIBot
 		this(null);
 	}
 
+	/**
+	 * Constructor for a bot that runs its simulations on multiple threads.
+	 * 
+	 * @param botForPlayout
+	 *            Creates the bot used during the playouts, each thread uses its own bot.
+	 * @param numberOfThreads
+	 *            The number of threads to run simulations on, normally the number of available cores.
+	 */
+	public LSIBot(Supplier<? extends BaseBot<HunterKillerState, HunterKillerAction>> botForPlayout, int numberOfThreads) {
+		this(botForPlayout, numberOfThreads, TIME_BUDGET_NOT_SET);
+	}
+
+	/**
+	 * Constructor for a bot that runs its simulations on multiple threads, within a time budget.
+	 * 
+	 * @param botForPlayout
+	 *            Creates the bot used during the playouts, each thread uses its own bot.
+	 * @param numberOfThreads
+	 *            The number of threads to run simulations on, normally the number of available cores.
+	 * @param timeBudget
+	 *            Number of milliseconds the search is allowed to use each turn. When set to
+	 *            {@link LSIBot#TIME_BUDGET_NOT_SET}, the search uses a fixed number of simulations instead.
+	 */
+	public LSIBot(Supplier<? extends BaseBot<HunterKillerState, HunterKillerAction>> botForPlayout, int numberOfThreads,
+					int timeBudget) {
+		this(botForPlayout != null ? botForPlayout.get() : null);
+
+		this.timeBudget = timeBudget;
+		if (timeBudget != TIME_BUDGET_NOT_SET)
+			this.botName += "_" + timeBudget + "ms";
+
+		if (numberOfThreads > 1) {
+			if (botForPlayout != null)
+				playoutBot = ThreadLocal.withInitial(botForPlayout);
+			// Use daemon threads, so that the pool does not keep the application alive
+			simulationPool = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			});
+			simulationThreads = numberOfThreads;
+			playout = new LSIPlayoutStrategy(playoutBot, goal);
+			this.botName += "_p" + numberOfThreads;
+		}
+	}
+
 	public LSIBot(BaseBot<HunterKillerState, HunterKillerAction> botForPlayout) {
 		super(myUID, HunterKillerState.class, HunterKillerAction.class);
 
 		// If nothing was specified, use some defaults
 		if (botForPlayout == null)
 			botForPlayout = new ShortCircuitRandomBot();
+		final BaseBot<HunterKillerState, HunterKillerAction> bot = botForPlayout;
 
 		// Create the knowledge-base that we will be using
 		kb = new KnowledgeBase();
-		kb.put(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_STRUCTURE, InfluenceMaps::calculateDistanceToEnemyStructures);
+		kb.putDistanceLayer(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_STRUCTURE, InfluenceMaps::locateEnemyStructures);
 
-		playoutBot = botForPlayout;
+		playoutBot = ThreadLocal.withInitial(() -> bot);
 
 		// Create the utility classes that LSI needs access to
 		sorting = new RandomSorting();
-		randomCompletion = new RandomActionCompletion();
+		randomCompletion = new RandomActionCompletion(legalOrders);
 		goal = roundCutoff(PLAYOUT_ROUND_CUTOFF);
 		playout = new LSIPlayoutStrategy(playoutBot, goal);
 		application = new LSIApplicationStrategy();
 		evaluation = evaluate(kb);
 
 		// Adjust our name according to some settings, this will help during testing and/or watching replays
-		this.botName = "LSI_" + playoutBot.getClass()
+		this.botName = "LSI_" + bot.getClass()
 											.getSimpleName();
 	}
 
 	@Override
 	public HunterKillerAction handle(HunterKillerState state) {
+		long turnStart = System.nanoTime();
 		Stopwatch actionTimer = new Stopwatch();
 		actionTimer.start();
 
+		// Reset the simulation counters, so that they are also correct for turns in which no search is needed
+		simulationsGeneration = 0;
+		simulationsEvaluation = 0;
+
 		// Check if we need to wait
 		waitTimeBuffer();
 
@@ -292,6 +433,14 @@ public class LSIBot
 		System.out.println(this.botName);
 		System.out.println("Starting an LSI search in round " + state.getCurrentRound());
 
+		// Legal orders from a previous search are no longer relevant, the states of this search are on the map of
+		// this state
+		legalOrders.clear(MapTerrain.of(state.getMap()));
+
+		// Determine when the search should be done, minus the safety margin
+		searchDeadline = timeBudget == TIME_BUDGET_NOT_SET ? Long.MAX_VALUE
+				: turnStart + TimeUnit.NANOSECONDS.convert(timeBudget - TIME_BUDGET_SAFETY_MARGIN_MS, TimeUnit.MILLISECONDS);
+
 		// We are going to use a special state as root for the search, so that we can keep track of all selected
 		// orders
 		LSIState searchState = new LSIState(state.copy(), sorting);
@@ -325,6 +474,12 @@ public class LSIBot
 		// Reset the counters for checking how many iterations we do
 		simulationsGeneration = 0;
 		simulationsEvaluation = 0;
+
+		if (timeBudget != TIME_BUDGET_NOT_SET) {
+			searchWithinBudget(context);
+			return;
+		}
+
 		// Adjust the amount of allowed evaluations, because LSI uses more than it is awarded.
 		// The factor used here is empirically determined.
 		int oldSamplesEvaluation = this.samplesEvaluation;
@@ -347,6 +502,65 @@ public class LSIBot
 		this.samplesEvaluation = oldSamplesEvaluation;
 	}
 
+	/**
+	 * Searches until the deadline of this turn. The time is split so that generation and evaluation receive simulations
+	 * in the ratio of {@link LSIBot#SAMPLES_FOR_GENERATION} to {@link LSIBot#SAMPLES_FOR_EVALUATION}. The cost of a
+	 * generation simulation is measured during this turn's generation, the cost of an evaluation simulation is derived
+	 * from it through the ratio between the two that was measured in the previous turn.
+	 * 
+	 * @param context
+	 *            The current search context.
+	 */
+	private void searchWithinBudget(SearchContext<Object, LSIState, CombinedAction, Object, HunterKillerAction> context) {
+		long searchStart = System.nanoTime();
+		long searchTime = Math.max(0, searchDeadline - searchStart);
+
+		// - Generate the side-information within its share of the time, which grows when evaluation is relatively cheap
+		double generationShare = SAMPLES_FOR_GENERATION / (SAMPLES_FOR_GENERATION + SAMPLES_FOR_EVALUATION * evaluationCostRatio);
+		long generationTime = (long) (searchTime * generationShare);
+		int samplesGeneration = nanosPerSimulation > 0 ? Math.max(1, (int) (generationTime / nanosPerSimulation))
+				: SAMPLES_FOR_GENERATION;
+		stepDeadline = searchStart + generationTime;
+		final ArrayList<OddmentTable<PartialAction>> weightActions = this.sideInfo(context, samplesGeneration);
+
+		// Measure how much time a simulation costs in the current state
+		long generationEnd = System.nanoTime();
+		if (simulationsGeneration > 0)
+			nanosPerSimulation = (generationEnd - searchStart) / (double) simulationsGeneration;
+
+		// - Evaluate the sampled combined actions in the remaining time
+		stepDeadline = searchDeadline;
+		double nanosPerEvaluation = nanosPerSimulation * evaluationCostRatio;
+		int samplesEvaluation = nanosPerEvaluation > 0 ? Math.max(1, (int) ((searchDeadline - generationEnd) / nanosPerEvaluation))
+				: SAMPLES_FOR_EVALUATION;
+		// Sample as many combined actions as can each be simulated once in every round of Sequential Halving
+		int numberOfSamples = Math.max(1, (int) (samplesEvaluation / Math.max(1, Math.ceil(FastMath.log(2, samplesEvaluation)))));
+		final HashSet<CombinedAction> subsetActions = this.sampleActions(context, weightActions, numberOfSamples);
+		final CombinedAction bestAction = this.evaluate(context, samplesEvaluation, subsetActions);
+		stepDeadline = Long.MAX_VALUE;
+
+		// Measure how an evaluation simulation compares to a generation simulation, for the split of the next turn
+		if (simulationsEvaluation > 0 && nanosPerSimulation > 0)
+			evaluationCostRatio = (System.nanoTime() - generationEnd) / (double) simulationsEvaluation / nanosPerSimulation;
+
+		// Add the best action to the context's solution and mark our search as successful
+		context.solution(this.solutionStrategy.apply(context, bestAction));
+		context.status(Status.Success);
+
+		System.out.println("In round " + context.source().state.getCurrentRound() + " LSI used " + simulationsGeneration
+							+ " sims for generation and " + simulationsEvaluation + " sims for evaluation, "
+							+ TimeUnit.MICROSECONDS.convert((long) nanosPerSimulation, TimeUnit.NANOSECONDS) + " us per generation sim, "
+							+ TimeUnit.MICROSECONDS.convert((long) (nanosPerSimulation * evaluationCostRatio), TimeUnit.NANOSECONDS)
+							+ " us per evaluation sim.");
+	}
+
+	/**
+	 * Returns whether or not the deadline of the current step of the search has passed.
+	 */
+	private boolean deadlinePassed() {
+		return System.nanoTime() >= stepDeadline;
+	}
+
 	/**
 	 * Generates the interesting subset of actions C* from C.
 	 * 
@@ -366,9 +580,23 @@ public class LSIBot
 		// Create the side information using the allowed number of generation simulations
 		final ArrayList<OddmentTable<PartialAction>> weightActions = this.sideInfo(context, samplesGeneration);
 
-		// Create combined actions by sampling a move from the side information
+		return this.sampleActions(context, weightActions, samplesEvaluation);
+	}
+
+	/**
+	 * Creates combined actions by sampling moves from the side information.
+	 * 
+	 * @param context
+	 *            The current search context.
+	 * @param weightActions
+	 *            The side information, see {@link LSIBot#sideInfo(SearchContext, int)}.
+	 * @param numberOfSamples
+	 *            The number of combined actions to sample, duplicates are only included once.
+	 */
+	public HashSet<CombinedAction> sampleActions(final SearchContext<Object, LSIState, CombinedAction, Object, HunterKillerAction> context,
+			final ArrayList<OddmentTable<PartialAction>> weightActions, final int numberOfSamples) {
 		final HashSet<CombinedAction> subsetActions = new HashSet<CombinedAction>();
-		for (int i = 0; i < samplesEvaluation; i++) {
+		for (int i = 0; i < numberOfSamples; i++) {
 			subsetActions.add(this.sampleMove.apply(context, context.source(), weightActions));
 		}
 
@@ -392,30 +620,35 @@ public class LSIBot
 		// How many simulations can be used per dimension
 		final int samplesPerDimension = Math.max(1, (int) Math.floor(samplesGeneration / numberOfDimensions));
 
-		// Go through each dimension
+		// Go through each dimension, and create a task that simulates each of its actions
+		final ArrayList<Iterable<PartialAction>> actionsPerDimension = new ArrayList<Iterable<PartialAction>>(numberOfDimensions);
+		final List<Callable<Pair<Float, Integer>>> simulations = new ArrayList<Callable<Pair<Float, Integer>>>();
 		for (int i = 0; i < numberOfDimensions; i++) {
-			// Create a new distribution table for this dimension
-			final OddmentTable<PartialAction> distributionDimension = new OddmentTable<PartialAction>();
-
 			// Generate all possible actions for this dimension
 			Iterable<PartialAction> actions = this.actions.apply(context, context.source(), i);
+			actionsPerDimension.add(actions);
 			// Determine the amount of simulations per action
-			int samplesPerAction = (int) Math.max(1, Math.floor(samplesPerDimension / IterableExtensions.size(actions)));
-			// Go through all the actions
+			final int samplesPerAction = (int) Math.max(1, Math.floor(samplesPerDimension / IterableExtensions.size(actions)));
 			for (final PartialAction action : actions) {
-				float value = 0f;
-				for (int j = 0; j < samplesPerAction; j++) {
-					// Extend this partial action into a combined action
-					final CombinedAction combined = this.extendMove.apply(context, context.source(), action);
+				simulations.add(() -> this.simulate(context, action, samplesPerAction));
+			}
+		}
 
-					// Increase the value of this action with the reward from the playout
-					value += this.playout(context, combined);
+		// Run the simulations, possibly in parallel
+		final List<Pair<Float, Integer>> values = this.run(simulations);
 
-					// Keep track of how many simulations we run
-					this.simulationsGeneration++;
-				}
-				// Add the average value of this action
-				distributionDimension.add(value / samplesPerAction, action, false);
+		// Reduce the values into a distribution for each dimension, in the same order as the tasks were created
+		int next = 0;
+		for (Iterable<PartialAction> actions : actionsPerDimension) {
+			// Create a new distribution table for this dimension
+			final OddmentTable<PartialAction> distributionDimension = new OddmentTable<PartialAction>();
+			for (final PartialAction action : actions) {
+				// Add the average value of this action, actions that were not simulated before the deadline have none
+				final Pair<Float, Integer> value = values.get(next++);
+				distributionDimension.add(value.getY() > 0 ? value.getX() / value.getY() : 0f, action, false);
+
+				// Keep track of how many simulations we run
+				this.simulationsGeneration += value.getY();
 			}
 
 			// Add the distribution for this action (R) to the list of distributions (R^)
@@ -430,6 +663,100 @@ public class LSIBot
 		return distributionCombined;
 	}
 
+	/**
+	 * Simulates a partial action a number of times, each time extending it into a combined action. Stops early when
+	 * the deadline of the current step has passed.
+	 * 
+	 * @param context
+	 *            The current search context.
+	 * @param action
+	 *            The partial action that should be evaluated.
+	 * @param samples
+	 *            The number of simulations to run.
+	 * @return The summed value of the simulations, and the number of simulations that were run.
+	 */
+	private Pair<Float, Integer> simulate(final SearchContext<Object, LSIState, CombinedAction, Object, HunterKillerAction> context,
+			final PartialAction action, final int samples) {
+		float value = 0f;
+		int simulations = 0;
+		for (; simulations < samples && !deadlinePassed(); simulations++) {
+			// Extend this partial action into a combined action
+			final CombinedAction combined = this.extendMove.apply(context, context.source(), action);
+
+			// Increase the value of this action with the reward from the playout
+			value += this.playout(context, combined);
+		}
+		return Pair.t(value, simulations);
+	}
+
+	/**
+	 * Simulates a combined action a number of times. Stops early when the deadline of the current step has passed.
+	 * 
+	 * @param context
+	 *            The current search context.
+	 * @param action
+	 *            The combined action that should be evaluated.
+	 * @param firstSimulation
+	 *            Index of the first simulation within the current round, see
+	 *            {@link LSIBot#setCommonRandomNumbers(boolean)}.
+	 * @param samples
+	 *            The number of simulations to run.
+	 * @param roundSeed
+	 *            The seed from which the seeds of the simulations in the current round are derived.
+	 * @return The results of the simulations that were run.
+	 */
+	private Candidate simulate(final SearchContext<Object, LSIState, CombinedAction, Object, HunterKillerAction> context,
+			final CombinedAction action, final int firstSimulation, final int samples, final long roundSeed) {
+		final Candidate result = new Candidate(action);
+		// With common random numbers the simulations draw from a generator of their own while this task runs, reseeding
+		// it does not change the numbers the thread draws afterwards, such as the seed of the next round
+		final Random previous = commonRandomNumbers ? BaseBot.setRandom(commonRandom.get()) : null;
+		try {
+			for (int j = 0; j < samples && !deadlinePassed(); j++) {
+				if (commonRandomNumbers)
+					BaseBot.setRandomSeed(roundSeed + (firstSimulation + j) * COMMON_RANDOM_NUMBERS_SEED_INCREMENT);
+				result.add(this.playout(context, action));
+			}
+			return result;
+		} finally {
+			if (previous != null)
+				BaseBot.setRandom(previous);
+		}
+	}
+
+	/**
+	 * Runs a collection of tasks and returns their results in the same order. If this bot has a pool of threads the
+	 * tasks are run on it, otherwise they are run on the calling thread.
+	 * 
+	 * @param tasks
+	 *            The tasks to run.
+	 */
+	private <T> List<T> run(final List<Callable<T>> tasks) {
+		final List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			if (simulationPool == null) {
+				for (Callable<T> task : tasks) {
+					results.add(task.call());
+				}
+			} else {
+				for (Future<T> future : simulationPool.invokeAll(tasks)) {
+					results.add(future.get());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread()
+					.interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		return results;
+	}
+
 	/**
 	 * Simulates a single combined action.
 	 * 
@@ -466,12 +793,14 @@ public class LSIBot
 			do {
 				// Create a HunterKillerAction from the CombinedAction
 				HunterKillerAction hkAction = new HunterKillerAction(state.state);
-				for (HunterKillerOrder order : action.orders) {
-					hkAction.addOrder(order);
+				// Use an index, the same action can be applied on multiple threads and an Array reuses its iterator
+				for (int i = 0; i < action.orders.size; i++) {
+					hkAction.addOrder(action.orders.get(i));
 				}
 
 				// Apply the created action to the hkState, so that it moves forward to the next player.
-				rulesEngine.handle(state.state, hkAction);
+				rulesEngine.get()
+							.handle(state.state, hkAction);
 
 				// Then for the next player, create a sorted unexpanded dimension set (clean LSIState)
 				state = new LSIState(state.state, sorting);
@@ -496,9 +825,10 @@ public class LSIBot
 			implements PlayoutStrategy<Object, LSIState, CombinedAction, Object> {
 
 		/**
-		 * Bot for HunterKiller that generates a {@link HunterKillerAction} to be used during the playout.
+		 * Bot for HunterKiller that generates a {@link HunterKillerAction} to be used during the playout, for each
+		 * thread.
 		 */
-		BaseBot<HunterKillerState, HunterKillerAction> playoutBot;
+		ThreadLocal<BaseBot<HunterKillerState, HunterKillerAction>> playoutBot;
 		/**
 		 * Determines when a playout is finished.
 		 */
@@ -508,8 +838,10 @@ public class LSIBot
 		public LSIState playout(SearchContext<Object, LSIState, CombinedAction, Object, ?> context, LSIState state) {
 			// Call the playout bot to continuously play actions until the goal is reached.
 			while (!goal.done(context, state)) {
-				HunterKillerAction botAction = playoutBot.handle(state.state);
-				rulesEngine.handle(state.state, botAction);
+				HunterKillerAction botAction = playoutBot.get()
+														.handle(state.state);
+				rulesEngine.get()
+							.handle(state.state, botAction);
 			}
 
 			return state;
@@ -562,7 +894,8 @@ public class LSIBot
 	}
 
 	/**
-	 * Select the best combined action from C*.
+	 * Select the best combined action from C*. When the deadline of the search passes during a round of Sequential
+	 * Halving, the action with the best average value so far is returned.
 	 * 
 	 * @param context
 	 *            The current search context.
@@ -574,73 +907,73 @@ public class LSIBot
 	public CombinedAction evaluate(final SearchContext<Object, LSIState, CombinedAction, Object, HunterKillerAction> context,
 			final int samplesEvaluation, final HashSet<CombinedAction> possibleActions) {
 
-		// Create a list of Pairs, with a value for each CombinedAction.
-		ArrayList<Pair<CombinedAction, Float>> currentActions = new ArrayList<Pair<CombinedAction, Float>>();
+		// Create a list of candidates, with a value for each CombinedAction.
+		ArrayList<Candidate> currentActions = new ArrayList<Candidate>();
 		for (final CombinedAction action : possibleActions) {
-			currentActions.add(Pair.<CombinedAction, Float> t(action, 0f));
+			currentActions.add(new Candidate(action));
 		}
 
 		// Define the function that will go through all actions, evaluate them and return the best half
-		final Function3<ArrayList<Pair<CombinedAction, Float>>, Integer, Integer, ArrayList<Pair<CombinedAction, Float>>> iteration = (
-				ArrayList<Pair<CombinedAction, Float>> actions, Integer numberActions, Integer simulations) -> {
+		final Function3<ArrayList<Candidate>, Integer, Integer, ArrayList<Candidate>> iteration = (ArrayList<Candidate> actions,
+				Integer numberActions, Integer simulations) -> {
 
 			// Create a list for the actions we handle this round
-			final ArrayList<Pair<CombinedAction, Float>> actionsThisRound = new ArrayList<Pair<CombinedAction, Float>>();
+			final ArrayList<Candidate> actionsThisRound = new ArrayList<Candidate>();
 			actionsThisRound.addAll(actions);
 
 			// Calculate how many simulations can be spent on an action this round
-			int simulationsPerAction = (int) Math.max(1, Math.floor(simulations / actions.size()));
-
-			for (int i = 0; i < actionsThisRound.size(); i++) {
-				final Pair<CombinedAction, Float> action = actionsThisRound.get(i);
+			final int simulationsPerAction = (int) Math.max(1, Math.floor(simulations / actions.size()));
 
-				// Maintain a value for this action
-				float value = 0f;
-				// Simulate this action
-				for (int j = 0; j < simulationsPerAction; j++) {
-					value += this.playout(context, action.getX());
-					this.simulationsEvaluation++;
-				}
+			// Determine the amount of actions for the next round
+			final int actionsNewRound = (int) Math.max(1, Math.ceil(actions.size() / 2));
 
-				// Update the value for this action
-				action.setY(action.getY() + value);
+			// With common random numbers, the n-th simulation of each action in this round starts from the same seed
+			final long roundSeed = commonRandomNumbers ? BaseBot.getRandom()
+																.nextLong() : 0;
+
+			// With early elimination the simulations are run in batches, after each batch the actions that can no
+			// longer survive the cut are no longer simulated
+			final int batches = earlyElimination ? Math.min(simulationsPerAction, EARLY_ELIMINATION_BATCHES) : 1;
+			final ArrayList<Candidate> activeActions = new ArrayList<Candidate>(actionsThisRound);
+			int firstSimulation = 0;
+			for (int batch = 0; batch < batches && !deadlinePassed(); batch++) {
+				// Divide the simulations of this round as evenly as possible over the batches
+				final int simulationsBatch = simulationsPerAction / batches + (batch < simulationsPerAction % batches ? 1 : 0);
+				this.simulateBatch(context, activeActions, firstSimulation, simulationsBatch, roundSeed);
+				firstSimulation += simulationsBatch;
+
+				if (earlyElimination)
+					eliminate(activeActions, actionsNewRound);
 			}
 
-			// Determine the amount of actions for the next round
-			final int actionsNewRound = (int) Math.max(1, Math.ceil(actions.size() / 2));
+			// Sort by descending average value, this is the same as sorting by total value when all actions received
+			// the same number of simulations
+			actionsThisRound.sort(Candidate.BEST_FIRST);
 
-			return actionsThisRound.stream()
-									.sorted((Pair<CombinedAction, Float> a, Pair<CombinedAction, Float> b) -> {
-										// Sort by descending values
-										return Float.compare(b.getY(), a.getY());
-									})
-									// Only take the amount of actions for the next round
-									.limit(actionsNewRound)
-									// Create an ArrayList to return
-									.collect(() -> {
-										// Supplier
-										return new ArrayList<Pair<CombinedAction, Float>>((actionsNewRound + 1));
-									},
-												(ArrayList<Pair<CombinedAction, Float>> a, Pair<CombinedAction, Float> b) -> {
-													// Accumulator
-													a.add(b);
-												},
-												(ArrayList<Pair<CombinedAction, Float>> a, ArrayList<Pair<CombinedAction, Float>> b) -> {
-													// Combiner
-													a.addAll(b);
-												});
+			// If the deadline passed during this round, not all actions have been simulated equally, so keep all of
+			// them
+			if (deadlinePassed())
+				return actionsThisRound;
+
+			// Only the actions that were not eliminated can survive, take the amount of actions for the next round
+			activeActions.sort(Candidate.BEST_FIRST);
+			return new ArrayList<Candidate>(activeActions.subList(0, Math.min(actionsNewRound, activeActions.size())));
 		};
 
 		// Determine the number of iterations of Sequential Halving we need
 		final int numberActions = possibleActions.size();
 		final int iterations = Math.max(1, (int) Math.floor(FastMath.log(2, numberActions)));
-		for (int i = 0; i < iterations; i++) {
-			// Calculate how many simulations can be spent on this iteration
-			final int simulations = Math.max(	1,
-												(int) Math.floor(samplesEvaluation
-																	/ (currentActions.size() * Math.max(1,
-																										Math.ceil(FastMath.log(	2,
-																																numberActions))))));
+		for (int i = 0; i < iterations && !currentActions.isEmpty() && !deadlinePassed(); i++) {
+			// Calculate how many simulations can be spent on this iteration. When searching within a time budget, the
+			// samples are an estimate of what fits in the remaining time and are divided equally over the rounds.
+			final int simulations;
+			if (timeBudget != TIME_BUDGET_NOT_SET) {
+				simulations = Math.max(1, samplesEvaluation / iterations);
+			} else {
+				simulations = Math.max(	1,
+										(int) Math.floor(samplesEvaluation
+															/ (currentActions.size() * Math.max(1, Math.ceil(FastMath.log(2, numberActions))))));
+			}
 			// Apply an iteration to the current list of actions
 			currentActions = iteration.apply(currentActions, Integer.valueOf(numberActions), Integer.valueOf(Math.max(1, simulations)));
 		}
@@ -648,8 +981,148 @@ public class LSIBot
 		// Return the first action (because the list is sorted by descending value)
 		if (currentActions.isEmpty())
 			return null;
-		return currentActions.get(0)
-								.getX();
+		return currentActions.get(0).action;
+	}
+
+	/**
+	 * Simulates a batch of simulations for each of the actions, and adds the results to them. All simulations have
+	 * finished when this method returns.
+	 * 
+	 * @param context
+	 *            The current search context.
+	 * @param actions
+	 *            The actions to simulate.
+	 * @param firstSimulation
+	 *            Index of the first simulation of this batch within the round, used to select the seeds of the
+	 *            simulations when using common random numbers.
+	 * @param simulationsPerAction
+	 *            The number of simulations to run for each action.
+	 * @param roundSeed
+	 *            The seed from which the seeds of the simulations in this round are derived.
+	 */
+	private void simulateBatch(final SearchContext<Object, LSIState, CombinedAction, Object, HunterKillerAction> context,
+			final List<Candidate> actions, final int firstSimulation, final int simulationsPerAction, final long roundSeed) {
+		// When fewer actions remain than there are threads, split the simulations of each action into multiple tasks so
+		// that all threads are kept busy
+		final int tasksPerAction = Math.min(simulationsPerAction, Math.max(1, (int) Math.ceil(simulationThreads / (double) actions.size())));
+
+		// Create the tasks that simulate the actions
+		final List<Callable<Candidate>> tasks = new ArrayList<Callable<Candidate>>(actions.size() * tasksPerAction);
+		for (int i = 0; i < actions.size(); i++) {
+			final CombinedAction action = actions.get(i).action;
+			int first = firstSimulation;
+			for (int t = 0; t < tasksPerAction; t++) {
+				// Divide the simulations of this action as evenly as possible over its tasks
+				final int simulationsTask = simulationsPerAction / tasksPerAction + (t < simulationsPerAction % tasksPerAction ? 1 : 0);
+				final int firstTask = first;
+				// Each task gets its own copy of the action, since the tasks of an action run at the same time and an
+				// Array hands out the same iterator to everyone iterating over it
+				final CombinedAction taskAction = tasksPerAction > 1 ? action.copy() : action;
+				tasks.add(() -> this.simulate(context, taskAction, firstTask, simulationsTask, roundSeed));
+				first += simulationsTask;
+			}
+		}
+
+		// Run the tasks and add their results to the actions
+		final List<Candidate> results = this.run(tasks);
+		for (int i = 0; i < actions.size(); i++) {
+			final Candidate action = actions.get(i);
+			for (int t = 0; t < tasksPerAction; t++) {
+				final Candidate result = results.get(i * tasksPerAction + t);
+				action.add(result);
+				this.simulationsEvaluation += result.simulations;
+			}
+		}
+	}
+
+	/**
+	 * Removes the actions that can no longer survive the cut of a round of Sequential Halving. An action is removed if
+	 * the upper bound of its value is below the lower bound of the value of the action that is ranked last among the
+	 * survivors. The actions with the highest lower bounds are therefore never removed.
+	 * 
+	 * @param actions
+	 *            The actions that are still being simulated this round.
+	 * @param survivors
+	 *            The number of actions that survive this round.
+	 */
+	private static void eliminate(final ArrayList<Candidate> actions, final int survivors) {
+		if (actions.size() <= survivors)
+			return;
+
+		// Find the lower bound an action has to exceed to possibly survive
+		final double[] lowerBounds = new double[actions.size()];
+		for (int i = 0; i < actions.size(); i++) {
+			lowerBounds[i] = actions.get(i)
+									.lowerBound();
+		}
+		Arrays.sort(lowerBounds);
+		final double threshold = lowerBounds[lowerBounds.length - survivors];
+
+		actions.removeIf(action -> action.upperBound() < threshold);
+	}
+
+	/**
+	 * A combined action that is being evaluated, together with the total value and number of its simulations.
+	 * 
+	 * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+	 *
+	 */
+	private static class Candidate {
+
+		/**
+		 * Orders candidates by descending average value, candidates that have not been simulated are placed last.
+		 */
+		static final Comparator<Candidate> BEST_FIRST = (Candidate a, Candidate b) -> {
+			if (a.simulations == 0 || b.simulations == 0)
+				return Integer.compare(b.simulations == 0 ? 0 : 1, a.simulations == 0 ? 0 : 1);
+			return Double.compare(b.average(), a.average());
+		};
+
+		final CombinedAction action;
+		double value = 0;
+		double squaredValue = 0;
+		int simulations = 0;
+
+		Candidate(CombinedAction action) {
+			this.action = action;
+		}
+
+		void add(double simulationValue) {
+			value += simulationValue;
+			squaredValue += simulationValue * simulationValue;
+			simulations++;
+		}
+
+		void add(Candidate other) {
+			value += other.value;
+			squaredValue += other.squaredValue;
+			simulations += other.simulations;
+		}
+
+		double average() {
+			return value / simulations;
+		}
+
+		/**
+		 * Returns the number of standard errors, as set by {@link LSIBot#EARLY_ELIMINATION_CONFIDENCE}, by which the
+		 * true average may differ from the observed average. Infinite while too few simulations have been run.
+		 */
+		double confidence() {
+			if (simulations < 2)
+				return Double.POSITIVE_INFINITY;
+			double average = average();
+			double variance = Math.max(0, squaredValue / simulations - average * average);
+			return EARLY_ELIMINATION_CONFIDENCE * Math.sqrt(variance / simulations);
+		}
+
+		double lowerBound() {
+			return average() - confidence();
+		}
+
+		double upperBound() {
+			return average() + confidence();
+		}
+
 	}
 
 	/**
@@ -671,6 +1144,14 @@ public class LSIBot
 		 * Contains orders for this state's active player.
 		 */
 		public CombinedAction combinedAction;
+		/**
+		 * Zobrist hash of the game state, see {@link LSIState#getStateHash()}.
+		 */
+		private long stateHash;
+		/**
+		 * Whether or not {@link LSIState#stateHash} has been calculated.
+		 */
+		private volatile boolean hashed = false;
 
 		/**
 		 * Constructor.
@@ -697,6 +1178,20 @@ public class LSIBot
 			this.combinedAction = other.combinedAction.copy();
 		}
 
+		/**
+		 * Returns the Zobrist hash of the game state, see {@link LegalOrderCache#hash(HunterKillerState)}. It is calculated
+		 * the first time it is needed, since most states only exist during a playout and are never hashed. Only the
+		 * source state of the search is hashed, which is not changed while searching, and threads that race to calculate
+		 * its hash find the same value.
+		 */
+		public long getStateHash() {
+			if (!hashed) {
+				stateHash = legalOrders.hash(state);
+				hashed = true;
+			}
+			return stateHash;
+		}
+
 		@Override
 		public long hashMethod() {
 			return hashCode();
@@ -746,6 +1241,11 @@ public class LSIBot
 		 * The orders for each object that have been assigned to them through the partial actions.
 		 */
 		public Array<HunterKillerOrder> orders;
+		/**
+		 * Hash of the orders in this action, which does not depend on the sequence in which they were pushed. Orders
+		 * should therefore only be added through {@link CombinedAction#pushOrder(HunterKillerOrder)}.
+		 */
+		public long orderHash = 0;
 
 		/**
 		 * Constructor.
@@ -773,6 +1273,7 @@ public class LSIBot
 			this.currentOrdering = new IntArray(other.currentOrdering);
 			this.dimensions = other.dimensions;
 			this.orders = new Array<HunterKillerOrder>(other.orders);
+			this.orderHash = other.orderHash;
 		}
 
 		/**
@@ -796,7 +1297,7 @@ public class LSIBot
 		 *            The partial action from which the order should be added.
 		 */
 		public void pushOrder(PartialAction action) {
-			orders.add(action.order);
+			pushOrder(action.order);
 		}
 
 		/**
@@ -807,6 +1308,7 @@ public class LSIBot
 		 */
 		public void pushOrder(HunterKillerOrder order) {
 			orders.add(order);
+			orderHash ^= ZobristHash.of(order);
 		}
 
 		/**
@@ -821,6 +1323,33 @@ public class LSIBot
 			return player;
 		}
 
+		/**
+		 * Two combined actions are equal if they contain the same orders for the same player, regardless of the
+		 * sequence in which the orders were pushed.
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof CombinedAction))
+				return false;
+			CombinedAction other = (CombinedAction) obj;
+			if (player != other.player || orderHash != other.orderHash || orders.size != other.orders.size)
+				return false;
+			// Only compare the actual orders when the hashes match, since each object receives at most one order this is
+			// rarely more than a handful
+			for (int i = 0; i < orders.size; i++) {
+				if (!other.orders.contains(orders.get(i), false))
+					return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * player + (int) (orderHash ^ (orderHash >>> 32));
+		}
+
 		public String toString() {
 			return "Ac; playerID " + player + " | dimensions " + dimensions + " | orders " + orders.size + " | ordering " + currentOrdering;
 		}
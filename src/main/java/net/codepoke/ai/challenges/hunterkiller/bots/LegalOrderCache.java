@@ -0,0 +1,137 @@
+package net.codepoke.ai.challenges.hunterkiller.bots;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import lombok.Getter;
+import net.codepoke.ai.challenge.hunterkiller.HunterKillerState;
+import net.codepoke.ai.challenge.hunterkiller.MoveGenerator;
+import net.codepoke.ai.challenge.hunterkiller.gameobjects.unit.Unit;
+import net.codepoke.ai.challenge.hunterkiller.orders.UnitOrder;
+import net.codepoke.ai.challenges.hunterkiller.MapTerrain;
+
+/**
+ * Remembers the legal orders of units, with friendly fire filtered out (see
+ * {@link BaseBot#filterFriendlyFire(List, Unit, net.codepoke.ai.challenge.hunterkiller.Map)}), indexed by the
+ * {@link ZobristHash} of the state and the ID of the unit. When the cache is full, the least recently used entry is
+ * removed. A cache should be cleared at the start of each search, which also sets the terrain of the map the search is
+ * on, see {@link LegalOrderCache#hash(HunterKillerState)}.
+ * 
+ * Note that the lists returned by this cache are shared, and should not be modified.
+ * 
+ * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+ *
+ */
+public class LegalOrderCache {
+
+	/**
+	 * Number of entries a cache holds by default.
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * The legal orders, in order of access.
+	 */
+	private final LinkedHashMap<Long, List<UnitOrder>> cache;
+	/**
+	 * Number of requests that were answered from the cache since it was last cleared.
+	 */
+	@Getter
+	private int hits = 0;
+	/**
+	 * Number of requests for which the orders had to be generated since the cache was last cleared.
+	 */
+	@Getter
+	private int misses = 0;
+	/**
+	 * The terrain of the map of the current search, or null if it is not known.
+	 */
+	@Getter
+	private volatile MapTerrain terrain;
+
+	/**
+	 * Constructor.
+	 */
+	public LegalOrderCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity
+	 *            The maximum number of entries in the cache.
+	 */
+	public LegalOrderCache(int capacity) {
+		cache = new LinkedHashMap<Long, List<UnitOrder>>(capacity, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<Long, List<UnitOrder>> eldest) {
+				return size() > capacity;
+			}
+
+		};
+	}
+
+	/**
+	 * Returns the legal orders for a unit, with friendly fire filtered out.
+	 * 
+	 * @param state
+	 *            The game state the unit is in.
+	 * @param stateHash
+	 *            The Zobrist hash of the game state, see {@link LegalOrderCache#hash(HunterKillerState)}.
+	 * @param unit
+	 *            The unit to get the orders for.
+	 */
+	public List<UnitOrder> getLegalOrders(HunterKillerState state, long stateHash, Unit unit) {
+		long key = ZobristHash.of(stateHash, unit.getID());
+		synchronized (cache) {
+			List<UnitOrder> orders = cache.get(key);
+			if (orders != null) {
+				hits++;
+				return orders;
+			}
+			misses++;
+		}
+
+		// Generate the orders outside of the lock, other threads can use the cache in the meantime
+		List<UnitOrder> orders = MoveGenerator.getAllLegalOrders(state, unit);
+		BaseBot.filterFriendlyFire(orders, unit, state.getMap());
+
+		synchronized (cache) {
+			cache.put(key, orders);
+		}
+		return orders;
+	}
+
+	/**
+	 * Returns the Zobrist hash of a game state in the current search, see
+	 * {@link ZobristHash#of(HunterKillerState, MapTerrain)}.
+	 * 
+	 * @param state
+	 *            The state to hash, which should be on the map of the current search.
+	 */
+	public long hash(HunterKillerState state) {
+		MapTerrain searchTerrain = terrain;
+		return ZobristHash.of(state, searchTerrain != null ? searchTerrain : MapTerrain.of(state.getMap()));
+	}
+
+	/**
+	 * Removes all entries from the cache and resets its counters.
+	 * 
+	 * @param terrain
+	 *            The terrain of the map of the search that starts, used to hash the states in that search.
+	 */
+	public void clear(MapTerrain terrain) {
+		synchronized (cache) {
+			cache.clear();
+			hits = 0;
+			misses = 0;
+			this.terrain = terrain;
+		}
+	}
+
+}
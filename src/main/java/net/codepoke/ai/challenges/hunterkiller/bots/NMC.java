@@ -1,6 +1,7 @@
 package net.codepoke.ai.challenges.hunterkiller.bots;
 
 import java.util.Random;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import lombok.val;
@@ -36,7 +37,10 @@ import com.badlogic.gdx.utils.IntMap;
  */
 public class NMC {
 
-	public static final Random rng = new MersenneTwister();
+	/**
+	 * Random number generator for each thread, so that multiple searches can run at the same time.
+	 */
+	public static final ThreadLocal<Random> rng = ThreadLocal.withInitial(MersenneTwister::new);
 
 	/**
 	 * The child-search uses its own policy to determine whether or not it should explore or exploit. Selection should
@@ -63,19 +67,42 @@ public class NMC {
 	 * cmab: Mapping that holds the root nodes of all individual MAB
 	 * </pre>
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@SuppressWarnings("rawtypes")
 	public static MonteCarloSearchBuilder<Object, ? extends State, ? extends Move, Object, Object> constructParentNMCSearch(
 			PlayoutStrategy playout, StateEvaluation evaluation, Function<State, Integer> dimensions, float epsilonParent,
 			float epsilonChild, IntMap<TreeSearchNode> cmab, Function2<? extends Move, ? super State, ? super Array<TreeSearchNode>> merger) {
+		return constructParentNMCSearch(playout, evaluation, dimensions, epsilonParent, epsilonChild, cmab, merger, null);
+	}
+
+	/**
+	 * See {@link NMC#constructParentNMCSearch(PlayoutStrategy, StateEvaluation, Function, float, float, IntMap, Function2)}.
+	 * 
+	 * @param initializer
+	 *            Called with each node of a local MAB when the local MAB is created, so that the nodes can be given prior
+	 *            statistics before they are compared with each other. The visits it adds are also added to the local
+	 *            MAB's root. May be null.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static MonteCarloSearchBuilder<Object, ? extends State, ? extends Move, Object, Object> constructParentNMCSearch(
+			PlayoutStrategy playout, StateEvaluation evaluation, Function<State, Integer> dimensions, float epsilonParent,
+			float epsilonChild, IntMap<TreeSearchNode> cmab, Function2<? extends Move, ? super State, ? super Array<TreeSearchNode>> merger,
+			Consumer<TreeSearchNode> initializer) {
 
 		MonteCarloSearchBuilder<Object, State, Move, Object, Object> search = MonteCarloSearch.builder();
 		search.exploration((context, value) -> {
-			return (rng.nextFloat() > epsilonParent);
+			return (rng.get()
+						.nextFloat() > epsilonParent);
 		});
 		search.solution(SolutionStrategy.Util.SOLUTION_ACTION);
 		search.playout(playout);
 		search.evaluation(evaluation);
 
+		// The child-search and its context do not depend on the iteration, so they are created once and reused by each
+		// expansion of this search
+		final MonteCarloSearch<Object, ? extends State, ? extends Move, Object, Object> childSearch = constructChildNMCSearch(epsilonChild);
+		final SearchContext[] childContext = new SearchContext[1];
+		final SearchContext[] childContextParent = new SearchContext[1];
+
 		// Expansion: conduct a search for each individual sub-action, then combine and merge them into a
 		// combined-action.
 		search.expansion((parentContext, parentNode, oldState) -> {
@@ -85,23 +112,31 @@ public class NMC {
 										.clone(oldState);
 			Array<TreeSearchNode> movesPerDimension = new Array<TreeSearchNode>();
 
-			// Each expansion, clear previous information and disable report construction
-			SearchContext context = parentContext.copy();
-			context.clearResetters();
-			context.constructReport(false);
+			// Create the context for the child-search when this search is first executed, clear previous information
+			// and disable report construction
+			if (childContext[0] == null || childContextParent[0] != parentContext) {
+				childContext[0] = parentContext.copy();
+				childContext[0].clearResetters();
+				childContext[0].constructReport(false);
+				childContext[0].search(childSearch);
+				childContextParent[0] = parentContext;
+			}
+			SearchContext context = childContext[0];
 
 			// Keep creating actions until each dimension has one
 			while (dimension < dimensionsAction && !context.goal()
 															.done(context, state)) {
 
 				// Find the action for this local MAB
-				context.search(constructChildNMCSearch(epsilonChild));
+				TreeSearchNode localRoot = cmab.get(dimension);
 				context.source(state);
-				context.startNode(cmab.get(dimension));
+				context.startNode(localRoot);
 				context.execute();
 
 				// Apply the action found and store the parent in the global CMAB for the next round
 				TreeSearchNode node = (TreeSearchNode) context.solution();
+				if (initializer != null && localRoot == null)
+					initialize((TreeSearchNode) node.getParent(), initializer);
 				cmab.put(dimension, (TreeSearchNode) node.getParent());
 				movesPerDimension.add(node);
 
@@ -136,6 +171,32 @@ public class NMC {
 		return search;
 	}
 
+	/**
+	 * Gives all nodes of a local MAB that was just created their prior statistics, and adds the visits to the local
+	 * MAB's root. The first search of a local MAB expands it into all of its sub-actions, so none of them have been
+	 * compared yet.
+	 * 
+	 * @param localRoot
+	 *            The root of the local MAB.
+	 * @param initializer
+	 *            Gives a node its prior statistics.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void initialize(TreeSearchNode localRoot, Consumer<TreeSearchNode> initializer) {
+		for (TreeSearchNode child : (Array<TreeSearchNode>) localRoot.getChildren()) {
+			int visits = child.getVisits();
+			double score = child.getScore();
+			initializer.accept(child);
+
+			// Keep the root's visits equal to the sum of its children's
+			int priorVisits = child.getVisits() - visits;
+			double priorAverage = priorVisits > 0 ? (child.getScore() - score) / priorVisits : 0;
+			for (int i = 0; i < priorVisits; i++) {
+				localRoot.visit(priorAverage);
+			}
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	public static MonteCarloSearch<Object, ? extends State, ? extends Move, Object, Object> constructChildNMCSearch(float epsilon) {
 		// Set up the builder for the search
@@ -153,7 +214,8 @@ public class NMC {
 		// Store the node, for the next iteration, then return the best node
 		builder.finalSelection((context, root) -> {
 
-			if (root.getChildren().size == 0 || rng.nextFloat() > epsilon) {
+			if (root.getChildren().size == 0 || rng.get()
+												.nextFloat() > epsilon) {
 				// Exploration: create a new action and add it to the pool (if no new action is found, revert to
 				// Exploitation)
 				TreeSearchNode<State, Move> node = expansion.expand(context, root, context.source());
@@ -1,16 +1,26 @@
 package net.codepoke.ai.challenges.hunterkiller.bots;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.val;
 import net.codepoke.ai.challenge.hunterkiller.HunterKillerAction;
 import net.codepoke.ai.challenge.hunterkiller.HunterKillerRules;
 import net.codepoke.ai.challenge.hunterkiller.HunterKillerState;
 import net.codepoke.ai.challenge.hunterkiller.Map;
+import net.codepoke.ai.challenge.hunterkiller.MapLocation;
 import net.codepoke.ai.challenge.hunterkiller.MoveGenerator;
 import net.codepoke.ai.challenge.hunterkiller.Player;
 import net.codepoke.ai.challenge.hunterkiller.gameobjects.GameObject;
@@ -45,6 +55,7 @@ import net.codepoke.lib.util.functions.Function2;
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.IntArray;
 import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.LongMap;
 
 /**
  * Bot for the game of HunterKiller that uses a NaiveMonteCarloSearch to determine its actions.
@@ -66,9 +77,9 @@ public class NMCBot
 	public String botName = "NMCBot";
 
 	/**
-	 * Rules of HunterKiller.
+	 * Rules of HunterKiller, each thread uses its own instance.
 	 */
-	HunterKillerRules rulesEngine = new HunterKillerRules();
+	ThreadLocal<HunterKillerRules> rulesEngine = ThreadLocal.withInitial(HunterKillerRules::new);
 
 	/**
 	 * The knowledgebase we are using.
@@ -86,11 +97,41 @@ public class NMCBot
 	 * Number of iterations to use.
 	 */
 	private static final int NMC_NUMBER_OF_ITERATIONS = 1000;
+	/**
+	 * Whether or not the statistics of the units' local MABs are carried over to the next turn. A unit's order is
+	 * remembered relative to the unit's location, so that it can be translated to where the unit is next turn.
+	 */
+	@Getter
+	@Setter
+	private boolean persistStatistics = false;
+	/**
+	 * Factor by which the visits of remembered statistics are multiplied each turn, the average score is kept.
+	 */
+	private static final double PERSISTED_STATISTICS_DECAY = 0.5;
+	/**
+	 * Remembered statistics of the units' orders, indexed by unit ID and then by the key of the order relative to the
+	 * unit's location (see {@link NMCBot#relativeOrderKey(UnitOrder, Unit)}). Each entry holds the visits and the total
+	 * score.
+	 */
+	private IntMap<LongMap<double[]>> persistedStatistics = new IntMap<LongMap<double[]>>();
 
 	/**
-	 * Bot that can be called to simulate actions during a Monte-Carlo playout.
+	 * Bot that can be called to simulate actions during a Monte-Carlo playout, when a single search is run.
 	 */
 	private BaseBot<HunterKillerState, HunterKillerAction> playoutBot;
+	/**
+	 * The bots that simulate actions during the playouts when multiple searches are run, each thread uses its own
+	 * instance. Null if a single search is run.
+	 */
+	private ThreadLocal<BaseBot<HunterKillerState, HunterKillerAction>> playoutBots;
+	/**
+	 * Number of searches that are run at the same time, each on its own thread.
+	 */
+	private int searchThreads = 1;
+	/**
+	 * Pool of threads on which the searches are run, null if a single search is run on the calling thread.
+	 */
+	private ExecutorService searchPool;
 	/**
 	 * Handles the simulation phase of a Monte-Carlo Search.
 	 */
@@ -145,6 +186,36 @@ public class NMCBot
 		this(null);
 	}
 
+	/**
+	 * Constructor for a bot that runs multiple searches at the same time. Each search has its own global CMAB and root
+	 * node and runs a part of the iterations, after which the combined actions in the global MABs are merged, see
+	 * {@link NMCBot#bestAction(Array)}.
+	 * 
+	 * @param botForPlayout
+	 *            Creates the bot used during the playouts, each thread uses its own bot. Required when more than one
+	 *            search is run.
+	 * @param numberOfThreads
+	 *            The number of searches to run at the same time, normally the number of available cores.
+	 */
+	public NMCBot(Supplier<? extends BaseBot<HunterKillerState, HunterKillerAction>> botForPlayout, int numberOfThreads) {
+		this(botForPlayout != null ? botForPlayout.get() : null);
+
+		if (numberOfThreads > 1) {
+			if (botForPlayout == null)
+				throw new RuntimeException("NMCBot needs a supplier of playout bots to run " + numberOfThreads
+											+ " searches at the same time.");
+			playoutBots = ThreadLocal.withInitial(botForPlayout);
+			searchThreads = numberOfThreads;
+			// Use daemon threads, so that the pool does not keep the application alive
+			searchPool = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.botName += "_p" + numberOfThreads;
+		}
+	}
+
 	public NMCBot(BaseBot<HunterKillerState, HunterKillerAction> botForPlayout) {
 		super(myUID, HunterKillerState.class, HunterKillerAction.class);
 
@@ -155,7 +226,7 @@ public class NMCBot
 
 		// Create the knowledge-base that we will be using
 		kb = new KnowledgeBase();
-		kb.put(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_STRUCTURE, InfluenceMaps::calculateDistanceToEnemyStructures);
+		kb.putDistanceLayer(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_STRUCTURE, InfluenceMaps::locateEnemyStructures);
 
 		// Instantiate the various strategies
 		goal = roundCutoff(PLAYOUT_ROUND_CUTOFF);
@@ -166,7 +237,7 @@ public class NMCBot
 		gameLogic = new NMCGameLogic(sorting);
 
 		// Adjust our name according to some settings, this will help during testing and/or watching replays
-		this.botName = "NMC_" + playoutBot.getClass()
+		this.botName = "NMC_" + botForPlayout.getClass()
 											.getSimpleName();
 	}
 
@@ -206,21 +277,82 @@ public class NMCBot
 		controlledIDs.shuffle();
 		((StaticSorting) sorting).setStaticSorting(controlledIDs);
 
-		// Create a fresh global CMAB
-		IntMap<TreeSearchNode> cmab = new IntMap<TreeSearchNode>();
+		// Age the statistics that are remembered from previous turns
+		if (persistStatistics)
+			decayPersistedStatistics(state);
+
+		CombinedAction solution;
+		Array<IntMap<TreeSearchNode>> cmabs = new Array<IntMap<TreeSearchNode>>();
+		if (searchPool != null) {
+			// Run multiple searches at the same time and merge their results
+			solution = searchParallel(state, cmabs);
+		} else {
+			// Search for an action
+			IntMap<TreeSearchNode> cmab = new IntMap<TreeSearchNode>();
+			cmabs.add(cmab);
+			val context = createSearch(state.copy(), NMC_NUMBER_OF_ITERATIONS, cmab);
+			// Make sure the root node is the special NMCRootNode
+			NaiveMonteCarloRootNode root = new NaiveMonteCarloRootNode<NMCState, Object>(context.source()
+																								.copy(), null);
+			context.startNode(root);
+			context.execute();
+			// Select the action with the same rule as a multi-threaded search, so that the thread count does not change it
+			solution = context.status() == Status.Success ? bestAction(Array.with(root)) : null;
+		}
+
+		// Remember the statistics of the local MABs for the next turn
+		if (persistStatistics)
+			persistStatistics(state, cmabs);
 
-		// Construct a parent-search
+		// Check if the search was successful
+		if (solution == null) {
+			System.err.println("ERROR; NMC-search did not find a solution.");
+			// Return a random action
+			return RandomBot.createRandomAction(state);
+		}
+
+		// Get the solution of the search
+		HunterKillerAction action = new HunterKillerAction(state);
+		for (HunterKillerOrder order : solution.orders) {
+			action.addOrder(order);
+		}
+
+		long time = actionTimer.end();
+		System.out.println("NMC returned with " + action.getOrders().size + " orders.");
+		System.out.println("My action calculation time was " + TimeUnit.MILLISECONDS.convert(time, TimeUnit.NANOSECONDS) + " ms");
+		System.out.println("");
+
+		return action;
+	}
+
+	/**
+	 * Sets up a NMC-search, starting from the provided state. The start node of the returned context still needs to be
+	 * set to a {@link NaiveMonteCarloRootNode}.
+	 * 
+	 * @param state
+	 *            The game state to search for, this state is used by the search and should not be shared.
+	 * @param iterations
+	 *            The number of iterations the search should go through.
+	 * @param cmab
+	 *            A fresh global CMAB for the search to use.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private SearchContext<Object, NMCState, Object, Object, Object> createSearch(HunterKillerState state, int iterations,
+			IntMap<TreeSearchNode> cmab) {
+		// Construct a parent-search, that starts the local MABs with the remembered statistics if required
+		final Map map = state.getMap();
 		MonteCarloSearchBuilder builder = NMC.constructParentNMCSearch(	playout,
 																		evaluation,
 																		(s) -> ((NMCState) s).combinedAction.dimensions,
 																		EPSILON_PARENT_SEARCH,
 																		EPSILON_CHILD_SEARCH,
 																		cmab,
-																		merger);
-		builder.iterations(NMC_NUMBER_OF_ITERATIONS);
+																		merger,
+																		persistStatistics ? node -> initializeNode(node, map) : null);
+		builder.iterations(iterations);
 
 		// Create a new state to start the search from
-		NMCState searchState = new NMCState(state.copy(), gameLogic.sorting);
+		NMCState searchState = new NMCState(state, gameLogic.sorting);
 
 		// Setup a search context
 		val context = new SearchContext<Object, NMCState, Object, Object, Object>();
@@ -230,32 +362,236 @@ public class NMCBot
 		context.application(gameLogic);
 		context.goal(gameLogic);
 
-		// Make sure the root node is the special NMCRootNode
-		context.startNode(new NaiveMonteCarloRootNode<NMCState, Object>(searchState.copy(), null));
+		return context;
+	}
+
+	/**
+	 * Runs {@link NMCBot#searchThreads} searches at the same time, that each go through an equal part of the
+	 * iterations. Each search has its own global MAB, and once all searches are done the combined actions in them are
+	 * merged, see {@link NMCBot#bestAction(Array)}. The returned action has therefore been evaluated as a whole.
+	 * 
+	 * @param state
+	 *            The game state to search for.
+	 * @param cmabs
+	 *            Collection to which the global CMAB of each search is added.
+	 * @return The best combined action, or null if none of the searches succeeded.
+	 */
+	@SuppressWarnings("rawtypes")
+	private CombinedAction searchParallel(HunterKillerState state, Array<IntMap<TreeSearchNode>> cmabs) {
+		// Divide the iterations over the searches
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(searchThreads);
+		Array<NaiveMonteCarloRootNode> roots = new Array<NaiveMonteCarloRootNode>();
+		for (int i = 0; i < searchThreads; i++) {
+			final int iterations = NMC_NUMBER_OF_ITERATIONS / searchThreads + (i < NMC_NUMBER_OF_ITERATIONS % searchThreads ? 1 : 0);
+			final HunterKillerState stateCopy = state.copy();
+			final IntMap<TreeSearchNode> cmab = new IntMap<TreeSearchNode>();
+			cmabs.add(cmab);
+			val context = createSearch(stateCopy, iterations, cmab);
+			// Each search has its own root node, which holds its global MAB
+			final NaiveMonteCarloRootNode root = new NaiveMonteCarloRootNode<NMCState, Object>(context.source()
+																										.copy(), null);
+			context.startNode(root);
+			roots.add(root);
+			tasks.add(() -> {
+				context.execute();
+				return context.status() == Status.Success;
+			});
+		}
+		// Only merge the global MABs of the searches that succeeded
+		Array<NaiveMonteCarloRootNode> successful = new Array<NaiveMonteCarloRootNode>();
+		try {
+			List<Future<Boolean>> futures = searchPool.invokeAll(tasks);
+			for (int i = 0; i < futures.size(); i++) {
+				if (futures.get(i)
+							.get())
+					successful.add(roots.get(i));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread()
+					.interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
 
-		// Search for an action
-		context.execute();
+		return bestAction(successful);
+	}
 
-		// Check if the search was successful
-		if (context.status() != Status.Success) {
-			System.err.println("ERROR; search-context returned with status: " + context.status());
-			// Return a random action
-			return RandomBot.createRandomAction(state);
+	/**
+	 * Merges the statistics of the combined actions in the global MABs of one or more searches, and returns the
+	 * combined action that was visited most, using the average score to break ties. Combined actions with the same
+	 * orders are merged, regardless of the search they were sampled in. Returns null if no combined action was visited.
+	 * 
+	 * @param roots
+	 *            The root nodes of the searches, which hold their global MAB.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static CombinedAction bestAction(Array<NaiveMonteCarloRootNode> roots) {
+		LongMap<ActionStatistics> merged = new LongMap<ActionStatistics>();
+		for (NaiveMonteCarloRootNode root : roots) {
+			for (TreeSearchNode node : (Array<TreeSearchNode>) root.getChildren()) {
+				if (node.getVisits() == 0)
+					continue;
+				CombinedAction action = (CombinedAction) node.getPayload();
+				// The keys of the orders are combined with XOR, so the key does not depend on their sequence
+				long key = 0;
+				for (HunterKillerOrder order : action.orders) {
+					key ^= ZobristHash.of(order);
+				}
+				ActionStatistics statistics = merged.get(key);
+				if (statistics == null) {
+					statistics = new ActionStatistics(action);
+					merged.put(key, statistics);
+				}
+				statistics.visits += node.getVisits();
+				statistics.score += node.getScore();
+			}
 		}
 
-		// Get the solution of the search
-		HunterKillerAction action = new HunterKillerAction(state);
-		CombinedAction solution = (CombinedAction) context.solution();
-		for (HunterKillerOrder order : solution.orders) {
-			action.addOrder(order);
+		ActionStatistics best = null;
+		for (ActionStatistics statistics : merged.values()) {
+			if (best == null || statistics.visits > best.visits
+				|| (statistics.visits == best.visits && statistics.score / statistics.visits > best.score / best.visits))
+				best = statistics;
 		}
+		return best != null ? best.action : null;
+	}
 
-		long time = actionTimer.end();
-		System.out.println("NMC returned with " + action.getOrders().size + " orders.");
-		System.out.println("My action calculation time was " + TimeUnit.MILLISECONDS.convert(time, TimeUnit.NANOSECONDS) + " ms");
-		System.out.println("");
+	/**
+	 * Gives a node of a unit's local MAB the statistics that were remembered for its order, with the visits rounded to
+	 * a whole number.
+	 * 
+	 * @param node
+	 *            The node that has not been visited yet.
+	 * @param map
+	 *            The map of the state that is searched for.
+	 */
+	@SuppressWarnings("rawtypes")
+	private void initializeNode(TreeSearchNode node, Map map) {
+		HunterKillerOrder order = ((PartialAction) node.getPayload()).order;
+		if (!(order instanceof UnitOrder))
+			return;
+		LongMap<double[]> unitStatistics = persistedStatistics.get(order.objectID);
+		if (unitStatistics == null)
+			return;
+		Unit unit = (Unit) map.getObject(order.objectID);
+		double[] statistics = unitStatistics.get(relativeOrderKey((UnitOrder) order, unit));
+		if (statistics == null)
+			return;
+
+		double average = statistics[1] / statistics[0];
+		for (int i = 0, n = (int) Math.round(statistics[0]); i < n; i++) {
+			node.visit(average);
+		}
+	}
+
+	/**
+	 * Multiplies the visits of the remembered statistics by {@link NMCBot#PERSISTED_STATISTICS_DECAY}, and removes the
+	 * statistics of units that no longer exist and of orders that have decayed to less than a single visit.
+	 */
+	private void decayPersistedStatistics(HunterKillerState state) {
+		Map map = state.getMap();
+		for (Iterator<IntMap.Entry<LongMap<double[]>>> units = persistedStatistics.iterator(); units.hasNext();) {
+			IntMap.Entry<LongMap<double[]>> unit = units.next();
+			if (!(map.getObject(unit.key) instanceof Unit)) {
+				units.remove();
+				continue;
+			}
+			for (Iterator<LongMap.Entry<double[]>> orders = unit.value.iterator(); orders.hasNext();) {
+				double[] statistics = orders.next().value;
+				statistics[0] *= PERSISTED_STATISTICS_DECAY;
+				statistics[1] *= PERSISTED_STATISTICS_DECAY;
+				if (statistics[0] < 1)
+					orders.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remembers the statistics of the unit orders in the local MABs. When multiple searches were run, the statistics of
+	 * the search that visited an order most are kept. Nodes that were given remembered statistics already include them,
+	 * so the remembered statistics are replaced.
+	 * 
+	 * @param state
+	 *            The game state that was searched for.
+	 * @param cmabs
+	 *            The global CMABs of the searches.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void persistStatistics(HunterKillerState state, Array<IntMap<TreeSearchNode>> cmabs) {
+		Map map = state.getMap();
+		IntMap<LongMap<double[]>> turnStatistics = new IntMap<LongMap<double[]>>();
+		for (IntMap<TreeSearchNode> cmab : cmabs) {
+			for (TreeSearchNode localRoot : cmab.values()) {
+				for (TreeSearchNode node : (Array<TreeSearchNode>) localRoot.getChildren()) {
+					HunterKillerOrder order = ((PartialAction) node.getPayload()).order;
+					if (!(order instanceof UnitOrder) || node.getVisits() == 0)
+						continue;
+					LongMap<double[]> unitStatistics = turnStatistics.get(order.objectID);
+					if (unitStatistics == null) {
+						unitStatistics = new LongMap<double[]>();
+						turnStatistics.put(order.objectID, unitStatistics);
+					}
+					long key = relativeOrderKey((UnitOrder) order, (Unit) map.getObject(order.objectID));
+					double[] statistics = unitStatistics.get(key);
+					if (statistics == null || statistics[0] < node.getVisits())
+						unitStatistics.put(key, new double[] { node.getVisits(), node.getScore() });
+				}
+			}
+		}
+
+		// Replace the remembered statistics with the ones from this turn
+		for (IntMap.Entry<LongMap<double[]>> unit : turnStatistics) {
+			LongMap<double[]> unitStatistics = persistedStatistics.get(unit.key);
+			if (unitStatistics == null)
+				persistedStatistics.put(unit.key, unit.value);
+			else
+				unitStatistics.putAll(unit.value);
+		}
+	}
+
+	/**
+	 * Returns a key for a unit's order that does not depend on where the unit is, consisting of the type of the order
+	 * and the offset of its target from the unit's location.
+	 */
+	private static long relativeOrderKey(UnitOrder order, Unit unit) {
+		int dx = 0, dy = 0;
+		MapLocation target = order.getTargetLocation();
+		if (target != null) {
+			dx = target.getX() - unit.getLocation()
+										.getX();
+			dy = target.getY() - unit.getLocation()
+										.getY();
+		}
+		return ((long) order.getOrderType()
+							.ordinal() << 32) | ((dx & 0xFFFFL) << 16) | (dy & 0xFFFFL);
+	}
+
+	/**
+	 * Statistics of a combined action in the global MAB, summed over the searches that were run at the same time.
+	 * 
+	 * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+	 *
+	 */
+	private static class ActionStatistics {
+
+		/**
+		 * The combined action, from the first search that visited it.
+		 */
+		final CombinedAction action;
+		/**
+		 * The amount of times the combined action has been visited.
+		 */
+		long visits = 0;
+		/**
+		 * Summation of the values the combined action has been visited with.
+		 */
+		double score = 0;
+
+		ActionStatistics(CombinedAction action) {
+			this.action = action;
+		}
 
-		return action;
 	}
 
 	/**
@@ -361,7 +697,8 @@ public class NMCBot
 				}
 
 				// Apply the created action to the hkState, so that it moves forward to the next player.
-				rulesEngine.handle(state.state, hkAction);
+				rulesEngine.get()
+							.handle(state.state, hkAction);
 
 				// Then for the next player, create a sorted unexpanded dimension set (clean HMCTSState)
 				state = new NMCState(state.state, sorting);
@@ -384,7 +721,8 @@ public class NMCBot
 			Map map = state.state.getMap();
 
 			// Post-process the ordering
-			sorting.postProcess(state.combinedAction.currentOrdering, state.combinedAction.nextDimension);
+			state.combinedAction.currentOrdering = sorting.postProcess(state.combinedAction.currentOrdering,
+																		state.combinedAction.nextDimension);
 
 			// The next dimension to expand can be found in the combined action
 			int nextDimension = state.combinedAction.nextDimension;
@@ -457,12 +795,14 @@ public class NMCBot
 			}
 
 			// Apply the created action on the HunterKillerState
-			rulesEngine.handle(state.state, action);
+			rulesEngine.get()
+						.handle(state.state, action);
 
 			// Call the playout bot to continuously play actions until the goal is reached.
 			while (!goal.done(context, state)) {
-				HunterKillerAction botAction = playoutBot.handle(state.state);
-				rulesEngine.handle(state.state, botAction);
+				HunterKillerAction botAction = (playoutBots != null ? playoutBots.get() : playoutBot).handle(state.state);
+				rulesEngine.get()
+							.handle(state.state, botAction);
 			}
 
 			return state;
@@ -565,7 +905,8 @@ public class NMCBot
 		public int nextDimension = -1;
 		/**
 		 * Ordered array containing the IDs of the units for which a partial action should be created.
-		 * Set by the last partial action we applied.
+		 * Set by the last partial action we applied. Shared with other states and partial actions, so it should never be
+		 * modified.
 		 */
 		public IntArray currentOrdering = null;
 
@@ -596,7 +937,8 @@ public class NMCBot
 			this.dimensions = other.dimensions;
 			this.orders = new Array<HunterKillerOrder>(other.orders);
 			this.nextDimension = other.nextDimension;
-			this.currentOrdering = new IntArray(other.currentOrdering);
+			// The ordering is never modified, so it can be shared
+			this.currentOrdering = other.currentOrdering;
 		}
 
 		/**
@@ -706,6 +1048,7 @@ public class NMCBot
 		public int nextDimensionIndex;
 		/**
 		 * Ordered array containing the IDs of the objects for which a partial action should be created.
+		 * Shared with other states and partial actions, so it should never be modified.
 		 */
 		public IntArray currentOrdering;
 
@@ -725,7 +1068,8 @@ public class NMCBot
 			this.player = player;
 			this.order = order;
 			this.nextDimensionIndex = nextDimensionIndex;
-			this.currentOrdering = new IntArray(currentOrdering);
+			// The ordering is never modified, so it can be shared with the other partial actions of this expansion
+			this.currentOrdering = currentOrdering;
 		}
 
 		public String toString() {
@@ -1,7 +1,6 @@
 package net.codepoke.ai.challenges.hunterkiller.bots;
 
 import java.util.List;
-import java.util.Random;
 
 import lombok.Getter;
 import net.codepoke.ai.challenge.hunterkiller.HunterKillerAction;
@@ -24,7 +23,6 @@ import net.codepoke.ai.network.AIBot;
 public class RandomBot
 		extends BaseBot<HunterKillerState, HunterKillerAction> {
 
-	private static Random r = new Random();
 	private static final String myUID = "u8rset9urla21i6jh5if4tbj3d";
 
 	@Getter
@@ -65,7 +63,7 @@ public class RandomBot
 		// Move through all structure
 		for (Structure structure : player.getStructures(map)) {
 			// Check if we want to do nothing
-			if (r.nextDouble() <= noBaseOrderThreshold)
+			if (getRandom().nextDouble() <= noBaseOrderThreshold)
 				continue;
 
 			// Add a random order for this structure to the action
@@ -77,7 +75,7 @@ public class RandomBot
 		// Move through all Units
 		for (Unit unit : player.getUnits(map)) {
 			// Check if we want to do nothing
-			if (r.nextDouble() <= noUnitOrderThreshold)
+			if (getRandom().nextDouble() <= noUnitOrderThreshold)
 				continue;
 
 			// Add a random order for this unit to the action
@@ -105,7 +103,7 @@ public class RandomBot
 
 		// Add a random order
 		if (!legalOrders.isEmpty()) {
-			return legalOrders.get(r.nextInt(legalOrders.size()));
+			return legalOrders.get(getRandom().nextInt(legalOrders.size()));
 		}
 
 		// Return null if the structure has no legal orders available
@@ -134,18 +132,18 @@ public class RandomBot
 		// Filter out any friendly-fire attacks
 		filterFriendlyFire(legalAttackOrders, unit, map);
 
-		double attackType = r.nextDouble();
+		double attackType = getRandom().nextDouble();
 		// Do a random rotation with 20% chance
 		if (attackType <= 0.2 && !legalRotationOrders.isEmpty()) {
-			return legalRotationOrders.get(r.nextInt(legalRotationOrders.size()));
+			return legalRotationOrders.get(getRandom().nextInt(legalRotationOrders.size()));
 		}
 		// Do a random move with 50% chance
 		else if (attackType <= 0.7 && !legalMoveOrders.isEmpty()) {
-			return legalMoveOrders.get(r.nextInt(legalMoveOrders.size()));
+			return legalMoveOrders.get(getRandom().nextInt(legalMoveOrders.size()));
 		}
 		// Do a random attack with 30% chance
 		else if (!legalAttackOrders.isEmpty()) {
-			return legalAttackOrders.get(r.nextInt(legalAttackOrders.size()));
+			return legalAttackOrders.get(getRandom().nextInt(legalAttackOrders.size()));
 		}
 
 		return null;
@@ -20,6 +20,7 @@ import net.codepoke.ai.challenge.hunterkiller.gameobjects.mapfeature.Structure;
 import net.codepoke.ai.challenge.hunterkiller.gameobjects.unit.Unit;
 import net.codepoke.ai.challenge.hunterkiller.orders.StructureOrder;
 import net.codepoke.ai.challenge.hunterkiller.orders.UnitOrder;
+import net.codepoke.ai.challenges.hunterkiller.DistanceTable;
 import net.codepoke.ai.network.AIBot;
 import one.util.streamex.StreamEx;
 
@@ -77,6 +78,8 @@ public class RulesBot
 																		.toList();
 		List<Unit> enemyUnits = stream(map, Unit.class).filter(i -> !i.isControlledBy(player))
 														.toList();
+		// Look up the distance table of the map once for all units, if the map is small enough to have one
+		DistanceTable distances = DistanceTable.of(map);
 		List<GameObject> attackableEnemies = stream(map, GameObject.class).filter(i -> {
 			if (i instanceof Unit) {
 				return !((Unit) i).isControlledBy(player);
@@ -118,6 +121,7 @@ public class RulesBot
 															units,
 															unit,
 															unitPaths,
+															distances,
 															enemyStructures,
 															enemyUnits,
 															copyState,
@@ -241,13 +245,16 @@ public class RulesBot
 	 *            The unit to create an order for.
 	 * @param unitPaths
 	 *            Any paths of movement that have been calculated for units, indexed by UnitID.
+	 * @param distances
+	 *            The distance table of the map, see {@link DistanceTable#of(Map)}, or null if paths should be searched on
+	 *            the map.
 	 * @param enemyStructures
 	 *            Any enemy structures currently visible to the player.
 	 * @param enemyUnits
 	 *            Any enemy units currently visible to the player.
 	 */
 	public static UnitOrder getStrategicOrder(HunterKillerRules rules, Player player, Map map, List<Unit> units, Unit unit,
-			Array<Array<MapLocation>> unitPaths, List<Structure> enemyStructures, List<Unit> enemyUnits, HunterKillerState stateCopy,
+			Array<Array<MapLocation>> unitPaths, DistanceTable distances, List<Structure> enemyStructures, List<Unit> enemyUnits, HunterKillerState stateCopy,
 			StringBuilder possibleCheckFails, StringBuilder orderFails) {
 
 		// Make sure we can accommodate a path for this unit
@@ -311,7 +318,13 @@ public class RulesBot
 															.getLocation();
 				}
 
-				Array<MapLocation> path = map.findPath(unit.getLocation(), targetLocation);
+				// There is nothing to walk to if the structure has no locations around it
+				if (targetLocation == null)
+					return null;
+
+				// Look up the path in the map's distance table, if the map is small enough to have one
+				Array<MapLocation> path = distances != null ? distances.findPath(unit.getLocation(), targetLocation)
+						: map.findPath(unit.getLocation(), targetLocation);
 				// Check if anything was found
 				if (path.size > 0) {
 
@@ -332,7 +345,7 @@ public class RulesBot
 	/**
 	 * Returns a reactive order for the specified Unit. Null is returned if no reactive order can be found or is
 	 * possible.
-	 * {@link RulesBot#getStrategicOrder(HunterKillerRules, Player, Map, List, Unit, Array, List, List, HunterKillerState, StringBuilder, StringBuilder)}
+	 * {@link RulesBot#getStrategicOrder(HunterKillerRules, Player, Map, List, Unit, Array, DistanceTable, List, List, HunterKillerState, StringBuilder, StringBuilder)}
 	 */
 	public static UnitOrder getReactiveOrder(HunterKillerRules rules, Player player, Map map, List<Unit> units, Unit unit,
 			List<GameObject> enemies, HunterKillerState stateCopy, StringBuilder possibleCheckFails) {
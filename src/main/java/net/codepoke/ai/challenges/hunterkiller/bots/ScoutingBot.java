@@ -78,10 +78,10 @@ public class ScoutingBot
 
 		// Create the knowledge-base that we will be using
 		kb = new KnowledgeBase();
-		kb.put(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_STRUCTURE, InfluenceMaps::calculateDistanceToEnemyStructures);
-		kb.put(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY, InfluenceMaps::calculateDistanceToAnyEnemy);
-		kb.put(KNOWLEDGE_LAYER_ALLY_PRESENCE, InfluenceMaps::calculateAllyPresence);
-		kb.put(KNOWLEDGE_LAYER_SQUAD_PRESENCE, InfluenceMaps::calculateSquadPresence);
+		kb.putDistanceLayer(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_STRUCTURE, InfluenceMaps::locateEnemyStructures);
+		kb.putDistanceLayer(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY, InfluenceMaps::locateAnyEnemy);
+		kb.put(KNOWLEDGE_LAYER_ALLY_PRESENCE, InfluenceMaps::calculateAllyPresence, InfluenceMaps::fingerprintAllyPresence);
+		kb.put(KNOWLEDGE_LAYER_SQUAD_PRESENCE, InfluenceMaps::calculateSquadPresence, InfluenceMaps::fingerprintSquadPresence);
 	}
 
 	@Override
@@ -79,8 +79,8 @@ public class SquadBot
 
 		// Create the knowledge-base that we will be using
 		kb = new KnowledgeBase();
-		kb.put(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY, InfluenceMaps::calculateDistanceToAnyEnemy);
-		kb.put(KNOWLEDGE_LAYER_SQUAD_PRESENCE, InfluenceMaps::calculateSquadPresence);
+		kb.putDistanceLayer(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY, InfluenceMaps::locateAnyEnemy);
+		kb.put(KNOWLEDGE_LAYER_SQUAD_PRESENCE, InfluenceMaps::calculateSquadPresence, InfluenceMaps::fingerprintSquadPresence);
 	}
 
 	/**
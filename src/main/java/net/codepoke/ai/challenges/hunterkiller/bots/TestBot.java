@@ -42,9 +42,9 @@ public class TestBot
 
 		// Create the knowledge-base that we will be using
 		kb = new KnowledgeBase();
-		kb.put(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_STRUCTURE, InfluenceMaps::calculateDistanceToEnemyStructures);
-		kb.put(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_UNIT, InfluenceMaps::calculateDistanceToEnemyUnits);
-		kb.put(KNOWLEDGE_LAYER_DISTANCE_TO_FRIENDLY_STRUCTURE, InfluenceMaps::calculateDistanceToAlliedStructures);
+		kb.putDistanceLayer(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_STRUCTURE, InfluenceMaps::locateEnemyStructures);
+		kb.putDistanceLayer(KNOWLEDGE_LAYER_DISTANCE_TO_ENEMY_UNIT, InfluenceMaps::locateEnemyUnits);
+		kb.putDistanceLayer(KNOWLEDGE_LAYER_DISTANCE_TO_FRIENDLY_STRUCTURE, InfluenceMaps::locateAlliedStructures);
 	}
 
 	@Override
@@ -0,0 +1,140 @@
+package net.codepoke.ai.challenges.hunterkiller.bots;
+
+import net.codepoke.ai.challenge.hunterkiller.HunterKillerState;
+import net.codepoke.ai.challenge.hunterkiller.Map;
+import net.codepoke.ai.challenge.hunterkiller.MapLocation;
+import net.codepoke.ai.challenge.hunterkiller.Player;
+import net.codepoke.ai.challenge.hunterkiller.gameobjects.mapfeature.Door;
+import net.codepoke.ai.challenge.hunterkiller.gameobjects.mapfeature.MapFeature;
+import net.codepoke.ai.challenge.hunterkiller.gameobjects.mapfeature.Structure;
+import net.codepoke.ai.challenge.hunterkiller.gameobjects.unit.Unit;
+import net.codepoke.ai.challenge.hunterkiller.orders.HunterKillerOrder;
+import net.codepoke.ai.challenge.hunterkiller.orders.StructureOrder;
+import net.codepoke.ai.challenge.hunterkiller.orders.UnitOrder;
+import net.codepoke.ai.challenges.hunterkiller.MapTerrain;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * Zobrist hashing of game states and orders. Instead of a table of random numbers, the key of a feature is generated
+ * by scrambling the combination of feature, object and value with the SplitMix64 finalizer, so that no table needs to
+ * be sized to the map.
+ * 
+ * @author Anton Valkenberg (anton.valkenberg@gmail.com)
+ *
+ */
+public class ZobristHash {
+
+	/**
+	 * Features that are hashed into the Zobrist hash of a state.
+	 */
+	private static final int ROUND = 1, PLAYER = 2, UNIT_LOCATION = 3, UNIT_ORIENTATION = 4, UNIT_HP = 5, STRUCTURE_CONTROL = 6,
+			UNIT_ORDER = 7, UNIT_COOLDOWN = 8, OBJECT = 9, STRUCTURE_ORDER = 10, SCORE = 11, RESOURCE = 12, STRUCTURE_HP = 13,
+			DOOR_OPEN = 14;
+	/**
+	 * Number of bits used for each coordinate of an order's target.
+	 */
+	private static final int COORDINATE_BITS = 12;
+	/**
+	 * Value of both coordinates of an order without a target.
+	 */
+	private static final int NO_TARGET = (1 << COORDINATE_BITS) - 1;
+
+	/**
+	 * Calculates the Zobrist hash of a game state, see {@link ZobristHash#of(HunterKillerState, MapTerrain)}.
+	 */
+	public static long of(HunterKillerState state) {
+		return of(state, MapTerrain.of(state.getMap()));
+	}
+
+	/**
+	 * Calculates the Zobrist hash of a game state, over everything that determines which orders are legal: the round,
+	 * the active player, the score and resources of each player, the location, orientation, health and special attack
+	 * cooldown of each unit, the control and health of each structure, and which doors are open.
+	 * 
+	 * @param state
+	 *            The state to hash.
+	 * @param terrain
+	 *            The terrain of the state's map, which tells where the features are that can change.
+	 */
+	public static long of(HunterKillerState state, MapTerrain terrain) {
+		Map map = state.getMap();
+		long hash = key(ROUND, 0, state.getCurrentRound()) ^ key(PLAYER, 0, state.getCurrentPlayer());
+
+		IntArray scores = state.getScores();
+		for (int i = 0; i < scores.size; i++) {
+			hash ^= key(SCORE, i, scores.get(i));
+		}
+
+		for (int i = 0; i < state.getNumberOfPlayers(); i++) {
+			Player player = state.getPlayer(i);
+			hash ^= key(RESOURCE, i, player.getResource());
+			IntArray unitIDs = player.getUnitIDs();
+			for (int j = 0; j < unitIDs.size; j++) {
+				Unit unit = (Unit) map.getObject(unitIDs.get(j));
+				hash ^= key(UNIT_LOCATION, unit.getID(), map.toPosition(unit.getLocation()));
+				hash ^= key(UNIT_ORIENTATION, unit.getID(), unit.getOrientation()
+																.ordinal());
+				hash ^= key(UNIT_HP, unit.getID(), unit.getHpCurrent());
+				hash ^= key(UNIT_COOLDOWN, unit.getID(), unit.getSpecialAttackCooldown());
+			}
+			IntArray structureIDs = player.getStructureIDs();
+			for (int j = 0; j < structureIDs.size; j++) {
+				hash ^= key(STRUCTURE_CONTROL, structureIDs.get(j), i);
+			}
+		}
+
+		// Doors block sight while closed, and structures can be damaged whether or not they are controlled
+		for (int position : terrain.changingFeatures) {
+			MapFeature feature = map.getFeatureAtLocation(map.toLocation(position));
+			if (feature instanceof Door)
+				hash ^= key(DOOR_OPEN, position, ((Door) feature).isOpen() ? 1 : 0);
+			else if (feature instanceof Structure)
+				hash ^= key(STRUCTURE_HP, feature.getID(), ((Structure) feature).getHpCurrent());
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the Zobrist key of an order, built from the ID of the ordered object, the type of the order and its
+	 * target. Since the keys of all orders are combined with XOR, the hash of a collection of orders does not depend on
+	 * the sequence in which they were added.
+	 */
+	public static long of(HunterKillerOrder order) {
+		if (order instanceof UnitOrder) {
+			UnitOrder unitOrder = (UnitOrder) order;
+			return key(UNIT_ORDER, order.objectID, orderValue(unitOrder.getOrderType()
+																		.ordinal(), unitOrder.getTargetLocation()));
+		}
+		StructureOrder structureOrder = (StructureOrder) order;
+		return key(STRUCTURE_ORDER, order.objectID, orderValue(structureOrder.getOrderType()
+																			.ordinal(), null));
+	}
+
+	/**
+	 * Packs the type of an order and the coordinates of its target into a single value.
+	 */
+	private static int orderValue(int type, MapLocation target) {
+		int x = target != null ? target.getX() : NO_TARGET;
+		int y = target != null ? target.getY() : NO_TARGET;
+		return (type << (2 * COORDINATE_BITS)) | ((x & NO_TARGET) << COORDINATE_BITS) | (y & NO_TARGET);
+	}
+
+	/**
+	 * Returns a key for an object in the state with the provided hash.
+	 */
+	public static long of(long stateHash, int objectID) {
+		return stateHash ^ key(OBJECT, objectID, 0);
+	}
+
+	/**
+	 * Returns the Zobrist key for a feature of an object having a value.
+	 */
+	private static long key(int feature, int objectID, int value) {
+		long key = ((long) feature << 56) ^ ((long) objectID << 32) ^ (value & 0xFFFFFFFFL);
+		key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+		key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+		return key ^ (key >>> 31);
+	}
+
+}
@@ -61,7 +61,8 @@ public class AttackSorting
 	}
 
 	@Override
-	public void postProcess(IntArray currentOrdering, int nextDimension) {
+	public IntArray postProcess(IntArray currentOrdering, int nextDimension) {
+		return currentOrdering;
 	}
 
 }
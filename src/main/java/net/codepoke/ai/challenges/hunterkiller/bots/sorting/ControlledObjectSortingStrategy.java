@@ -22,13 +22,15 @@ public interface ControlledObjectSortingStrategy {
 
 	/**
 	 * Allows some post processing to be run on the current sorting when a certain index in the ordering is to be
-	 * expanded next.
+	 * expanded next. The current ordering is shared between search nodes and must not be modified; a strategy that
+	 * reorders should return a new array instead.
 	 * 
 	 * @param currentOrdering
 	 *            The current ordering of dimensions.
 	 * @param nextDimensionIndex
 	 *            The index of the dimension that should be expanded next.
+	 * @return The ordering to use, which is the current ordering if nothing changed.
 	 */
-	public void postProcess(IntArray currentOrdering, int nextDimensionIndex);
+	public IntArray postProcess(IntArray currentOrdering, int nextDimensionIndex);
 
 }
@@ -66,7 +66,8 @@ public class InformedSorting
 	}
 
 	@Override
-	public void postProcess(IntArray currentOrdering, int nextDimension) {
+	public IntArray postProcess(IntArray currentOrdering, int nextDimension) {
+		return currentOrdering;
 	}
 
 	/**
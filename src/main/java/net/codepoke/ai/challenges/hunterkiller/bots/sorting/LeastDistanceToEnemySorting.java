@@ -8,11 +8,15 @@ import net.codepoke.ai.challenge.hunterkiller.MapLocation;
 import net.codepoke.ai.challenge.hunterkiller.Player;
 import net.codepoke.ai.challenge.hunterkiller.gameobjects.mapfeature.Structure;
 import net.codepoke.ai.challenge.hunterkiller.gameobjects.unit.Unit;
+import net.codepoke.ai.challenges.hunterkiller.InfluenceMaps.DistanceLayer;
 import net.codepoke.ai.challenges.hunterkiller.InfluenceMaps.KnowledgeBase;
+import net.codepoke.ai.challenges.hunterkiller.InfluenceMaps.KnowledgeLayer;
+import net.codepoke.ai.challenges.hunterkiller.MapTerrain;
 import net.codepoke.lib.util.datastructures.MatrixMap;
 
 import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntMap;
 
 @NoArgsConstructor
 public class LeastDistanceToEnemySorting
@@ -24,6 +28,13 @@ public class LeastDistanceToEnemySorting
 	@Setter
 	String knowledgeLayer;
 
+	/**
+	 * Private copies of the knowledge layer for each thread, by the player that is active in the sorted state. The
+	 * states a thread sorts during a search follow each other closely, so repairing the distances of the previous state
+	 * of the same player only visits the part of the map around the units that moved.
+	 */
+	private final ThreadLocal<IntMap<DistanceLayer>> sortingLayers = ThreadLocal.withInitial(IntMap::new);
+
 	@Override
 	public IntArray sort(HunterKillerState state) {
 		Player player = state.getActivePlayer();
@@ -35,17 +46,24 @@ public class LeastDistanceToEnemySorting
 		unitIDs.shuffle();
 		structureIDs.shuffle();
 
-		// Update the knowledge layer containing the distances to enemy units/structures
-		kb.get(knowledgeLayer)
-			.update(state);
-		MatrixMap distanceMap = kb.get(knowledgeLayer)
-									.getMap();
+		// Determine the distances to enemy units/structures for this state. The layer itself is not updated, because
+		// searches can sort states on several threads at once. A distance layer is repaired in a private copy for this
+		// thread instead, any other layer is calculated for the state.
+		KnowledgeLayer layer = kb.get(knowledgeLayer);
+		DistanceLayer sortingLayer = null;
+		MatrixMap distanceMap = null;
+		if (layer instanceof DistanceLayer) {
+			sortingLayer = getSortingLayer((DistanceLayer) layer, state);
+		} else {
+			distanceMap = layer.calculate(state);
+		}
 
 		Array<float[]> idDistance = new Array<float[]>();
 		for (int i = 0; i < unitIDs.size; i++) {
 			Unit unit = (Unit) map.getObject(unitIDs.get(i));
 			MapLocation unitLocation = unit.getLocation();
-			int distanceToEnemy = distanceMap.get(unitLocation.getX(), unitLocation.getY());
+			int distanceToEnemy = sortingLayer != null ? sortingLayer.getDistance(map.toPosition(unitLocation))
+														: distanceMap.get(unitLocation.getX(), unitLocation.getY());
 			idDistance.add(new float[] { unit.getID(), distanceToEnemy });
 		}
 
@@ -67,8 +85,29 @@ public class LeastDistanceToEnemySorting
 		return sorting;
 	}
 
+	/**
+	 * Returns this thread's copy of the provided layer for the active player, repaired for the provided state.
+	 */
+	private DistanceLayer getSortingLayer(DistanceLayer layer, HunterKillerState state) {
+		IntMap<DistanceLayer> layers = sortingLayers.get();
+		int player = state.getCurrentPlayer();
+		DistanceLayer sortingLayer = layers.get(player);
+		if (sortingLayer == null) {
+			sortingLayer = new DistanceLayer(knowledgeLayer, layer.getSources());
+			layers.put(player, sortingLayer);
+		}
+
+		// The states of a search are on the map of the latest update of the knowledge base
+		MapTerrain terrain = layer.getLatestTerrain();
+		if (terrain == null)
+			terrain = MapTerrain.of(state.getMap());
+		sortingLayer.update(state, terrain);
+		return sortingLayer;
+	}
+
 	@Override
-	public void postProcess(IntArray currentOrdering, int nextDimension) {
+	public IntArray postProcess(IntArray currentOrdering, int nextDimension) {
+		return currentOrdering;
 	}
 
 }
@@ -4,8 +4,8 @@ import net.codepoke.ai.challenge.hunterkiller.HunterKillerState;
 import net.codepoke.ai.challenge.hunterkiller.Map;
 import net.codepoke.ai.challenge.hunterkiller.Player;
 import net.codepoke.ai.challenge.hunterkiller.gameobjects.mapfeature.Structure;
+import net.codepoke.ai.challenges.hunterkiller.bots.BaseBot;
 
-import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.utils.IntArray;
 
 /**
@@ -33,14 +33,21 @@ public class RandomSorting
 		}
 
 		// Randomize the array
-		controlledIDs.shuffle();
+		shuffle(controlledIDs, 0);
 
 		return controlledIDs;
 	}
 
 	@Override
-	public void postProcess(IntArray currentOrdering, int nextDimensionIndex) {
-		shuffle(currentOrdering, nextDimensionIndex);
+	public IntArray postProcess(IntArray currentOrdering, int nextDimensionIndex) {
+		// Nothing to shuffle if at most one item remains
+		if (currentOrdering.size - nextDimensionIndex <= 1)
+			return currentOrdering;
+
+		// The ordering is shared, so shuffle a copy of it
+		IntArray ordering = new IntArray(currentOrdering);
+		shuffle(ordering, nextDimensionIndex);
+		return ordering;
 	}
 
 	/**
@@ -54,7 +61,9 @@ public class RandomSorting
 	public void shuffle(IntArray x, int from) {
 		int[] items = x.items;
 		for (int i = x.size - 1; i >= from; i--) {
-			int ii = MathUtils.random(i - from) + from;
+			// Use the random number generator of the current thread, this sorting may be used by multiple threads
+			int ii = BaseBot.getRandom()
+							.nextInt(i - from + 1) + from;
 			int temp = items[i];
 			items[i] = items[ii];
 			items[ii] = temp;
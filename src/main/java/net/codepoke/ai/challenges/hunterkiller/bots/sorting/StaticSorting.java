@@ -60,7 +60,8 @@ public class StaticSorting
 	}
 
 	@Override
-	public void postProcess(IntArray currentOrdering, int nextDimension) {
+	public IntArray postProcess(IntArray currentOrdering, int nextDimension) {
+		return currentOrdering;
 	}
 
 }